@@ -0,0 +1,95 @@
+package mul;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+//keeps images of resolved programs on disk, named after the SHA-256 of
+//their source, so running an unchanged script again skips scanning,
+//parsing and resolving. -Dmul.cache=false turns it off and
+//-Dmul.cache.dir moves it away from ~/.jmul/cache
+class AstCache{
+    static final boolean ENABLED = !"false".equals(System.getProperty("mul.cache"));
+
+    private final Path directory;
+
+    AstCache(){
+        String directory = System.getProperty("mul.cache.dir");
+        if(directory == null)
+            directory = System.getProperty("user.home") + "/.jmul/cache";
+        this.directory = Paths.get(directory);
+    }
+
+    //hex SHA-256 of the file's bytes, images of trees the
+    //optimizer didn't touch are kept apart from optimized ones
+    static String key(Path script) throws IOException{
+        MessageDigest digest;
+        try{
+            digest = MessageDigest.getInstance("SHA-256");
+        }catch(NoSuchAlgorithmException e){
+            throw new IllegalStateException(e);
+        }
+
+        byte[] buffer = new byte[1 << 16];
+        try(InputStream in = Files.newInputStream(script)){
+            for(int read = in.read(buffer); read > 0; read = in.read(buffer)){
+                digest.update(buffer, 0, read);
+            }
+        }
+
+        StringBuilder key = new StringBuilder();
+        for(byte b: digest.digest()){
+            key.append(Character.forDigit((b >> 4) & 0xf, 16));
+            key.append(Character.forDigit(b & 0xf, 16));
+        }
+        if(!Optimizer.ENABLED)
+            key.append("-unoptimized");
+        return key.toString();
+    }
+
+    //null if there is no usable image for the key
+    List<Stmt> load(String key){
+        Path file = directory.resolve(key + ".ast");
+        if(!Files.isRegularFile(file))
+            return null;
+
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            MappedByteBuffer image = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new AstReader(image).read();
+        }catch(IOException | RuntimeException e){
+            //an unreadable or outdated image is just a miss, it gets overwritten
+            return null;
+        }
+    }
+
+    void store(String key, List<Stmt> statements){
+        Path temp = null;
+        try{
+            Files.createDirectories(directory);
+            //written next to the image and moved in place, so a reader never sees half of it
+            temp = Files.createTempFile(directory, key, ".tmp");
+            Files.write(temp, new AstWriter().write(statements));
+            Files.move(temp, directory.resolve(key + ".ast"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            temp = null;
+        }catch(IOException | UnsupportedOperationException e){
+            //the cache only saves time, running the script doesn't depend on it
+        }finally{
+            if(temp != null){
+                try{
+                    Files.deleteIfExists(temp);
+                }catch(IOException e){
+                    //nothing left to do about it
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package mul;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import static mul.AstWriter.*;
+
+//rebuilds a resolved program from an image written by AstWriter,
+//throws IllegalArgumentException if the image can't be read
+class AstReader{
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final ByteBuffer in;
+    private String[] strings;
+    //the interned form of strings used as lexemes, filled in as needed
+    private String[] lexemes;
+
+    AstReader(ByteBuffer in){
+        this.in = in;
+    }
+
+    List<Stmt> read(){
+        if(in.getInt() != MAGIC || in.getInt() != VERSION)
+            throw new IllegalArgumentException("Not an image of this version.");
+
+        int count = in.getInt();
+        strings = new String[count];
+        lexemes = new String[count];
+        for(int i = 0; i < count; ++i){
+            byte[] bytes = new byte[in.getInt()];
+            in.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        List<Stmt> statements = statements();
+        if(in.hasRemaining())
+            throw new IllegalArgumentException("Trailing bytes after the program.");
+        return statements;
+    }
+
+    private List<Stmt> statements(){
+        int count = in.getInt();
+        List<Stmt> statements = new ArrayList<>(count);
+        for(int i = 0; i < count; ++i){
+            statements.add(statement());
+        }
+        return statements;
+    }
+
+    private Stmt statement(){
+        int tag = in.get();
+        switch(tag){
+            case NULL:
+                return null;
+
+            case BLOCK: {
+                Stmt.Block stmt = new Stmt.Block(statements());
+                stmt.slotCount = in.getInt();
+                return stmt;
+            }
+
+            case CLASS: {
+                Token name = token();
+                Expr.Variable superclass = (Expr.Variable)expression();
+                int count = in.getInt();
+                List<Stmt.Function> methods = new ArrayList<>(count);
+                for(int i = 0; i < count; ++i){
+                    methods.add((Stmt.Function)statement());
+                }
+
+                Stmt.Class stmt = new Stmt.Class(name, superclass, methods);
+                stmt.slot = in.getInt();
+                return stmt;
+            }
+
+            case EXPRESSION:
+                return new Stmt.Expression(expression());
+
+            case FUNCTION: {
+                Token name = token();
+                int count = in.getInt();
+                List<Token> params = new ArrayList<>(count);
+                for(int i = 0; i < count; ++i){
+                    params.add(token());
+                }
+
+                Stmt.Function stmt = new Stmt.Function(name, params, statements());
+                stmt.slot = in.getInt();
+                stmt.slotCount = in.getInt();
+                return stmt;
+            }
+
+            case FOR: {
+                Stmt initializer = statement();
+                Expr condition = expression();
+                Expr increment = expression();
+                Stmt.For stmt = new Stmt.For(initializer, condition, increment, statement());
+                stmt.slotCount = in.getInt();
+                return stmt;
+            }
+
+            case IF: {
+                Expr condition = expression();
+                Stmt thenBranch = statement();
+                return new Stmt.If(condition, thenBranch, statement());
+            }
+
+            case PRINT:
+                return new Stmt.Print(expression());
+
+            case RETURN: {
+                Token keyword = token();
+                return new Stmt.Return(keyword, expression());
+            }
+
+            case VAR: {
+                Token name = token();
+                Stmt.Var stmt = new Stmt.Var(name, expression());
+                stmt.slot = in.getInt();
+                return stmt;
+            }
+
+            case WHILE: {
+                Expr condition = expression();
+                return new Stmt.While(condition, statement());
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown statement tag " + tag + ".");
+    }
+
+    private Expr expression(){
+        int tag = in.get();
+        switch(tag){
+            case NULL:
+                return null;
+
+            case ASSIGN: {
+                Token name = token();
+                Expr.Assign expr = new Expr.Assign(name, expression());
+                expr.depth = in.getInt();
+                expr.slot = slot(expr.depth, in.getInt(), name);
+                return expr;
+            }
+
+            case BINARY: {
+                Expr left = expression();
+                Token operator = token();
+                return new Expr.Binary(left, operator, expression());
+            }
+
+            case TERNARY: {
+                Expr condition = expression();
+                Expr thenExpr = expression();
+                return new Expr.Ternary(condition, thenExpr, expression());
+            }
+
+            case CALL: {
+                Expr callee = expression();
+                Token paren = token();
+                int count = in.getInt();
+                List<Expr> arguments = new ArrayList<>(count);
+                for(int i = 0; i < count; ++i){
+                    arguments.add(expression());
+                }
+
+                Expr.Call expr = new Expr.Call(callee, paren, arguments);
+                expr.tail = in.get() != 0;
+                return expr;
+            }
+
+            case GET: {
+                Expr object = expression();
+                return new Expr.Get(object, token());
+            }
+
+            case GROUPING:
+                return new Expr.Grouping(expression());
+
+            case INDEX: {
+                Expr object = expression();
+                Token bracket = token();
+                return new Expr.Index(object, bracket, expression());
+            }
+
+            case INDEX_SET: {
+                Expr object = expression();
+                Token bracket = token();
+                Expr index = expression();
+                return new Expr.IndexSet(object, bracket, index, expression());
+            }
+
+            case LITERAL:
+                return new Expr.Literal(literal());
+
+            case LOGICAL: {
+                Expr left = expression();
+                Token operator = token();
+                return new Expr.Logical(left, operator, expression());
+            }
+
+            case SET: {
+                Expr object = expression();
+                Token name = token();
+                return new Expr.Set(object, name, expression());
+            }
+
+            case SUPER: {
+                Token keyword = token();
+                Expr.Super expr = new Expr.Super(keyword, token());
+                expr.depth = in.getInt();
+                expr.slot = in.getInt();
+                expr.thisDepth = in.getInt();
+                return expr;
+            }
+
+            case THIS: {
+                Expr.This expr = new Expr.This(token());
+                expr.depth = in.getInt();
+                expr.slot = in.getInt();
+                return expr;
+            }
+
+            case UNARY: {
+                Token operator = token();
+                return new Expr.Unary(operator, expression());
+            }
+
+            case VARIABLE: {
+                Expr.Variable expr = new Expr.Variable(token());
+                expr.depth = in.getInt();
+                expr.slot = slot(expr.depth, in.getInt(), expr.name);
+                return expr;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown expression tag " + tag + ".");
+    }
+
+    //slots of globals belong to the process that wrote the image, they're looked up again
+    private static int slot(int depth, int slot, Token name){
+        if(depth == Expr.GLOBAL)
+            return Globals.slot(name._lexeme);
+        return slot;
+    }
+
+    private Object literal(){
+        int kind = in.get();
+        switch(kind){
+            case AstWriter.NIL:     return null;
+            case AstWriter.TRUE:    return true;
+            case AstWriter.FALSE:   return false;
+            case AstWriter.NUMBER:  return in.getDouble();
+            case AstWriter.STRING:  return strings[in.getInt()];
+        }
+
+        throw new IllegalArgumentException("Unknown literal kind " + kind + ".");
+    }
+
+    private Token token(){
+        TokenType type = TYPES[in.get()];
+        int index = in.getInt();
+        int line = in.getInt();
+
+        //lexemes are interned like the scanner does it
+        String lexeme = lexemes[index];
+        if(lexeme == null){
+            lexeme = strings[index].intern();
+            lexemes[index] = lexeme;
+        }
+
+        Object literal = null;
+        if(type == TokenType.NUMBER){
+            literal = Double.parseDouble(lexeme);
+        }else if(type == TokenType.STRING){
+            literal = lexeme.substring(1, lexeme.length() - 1);
+        }
+
+        return new Token(type, lexeme, literal, line);
+    }
+}
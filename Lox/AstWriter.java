@@ -0,0 +1,396 @@
+package mul;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//turns a resolved program into the image AstReader loads back:
+//
+//  magic, version, string count, strings, statement count, statements
+//
+//every node starts with its tag followed by its fields in declaration
+//order, tokens are a type, an index into the strings and a line, and the
+//resolver's depths and slots follow the fields of the node they belong to
+class AstWriter implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
+    static final int MAGIC = 0x4d554c41;   //"MULA"
+    //bump whenever the layout of a node or what the resolver stores on it changes
+    static final int VERSION = 5;
+
+    //a missing child, like an if without else
+    static final int NULL = 0;
+
+    static final int ASSIGN = 1;
+    static final int BINARY = 2;
+    static final int TERNARY = 3;
+    static final int CALL = 4;
+    static final int GET = 5;
+    static final int GROUPING = 6;
+    static final int LITERAL = 7;
+    static final int LOGICAL = 8;
+    static final int SET = 9;
+    static final int SUPER = 10;
+    static final int THIS = 11;
+    static final int UNARY = 12;
+    static final int VARIABLE = 13;
+    static final int INDEX = 14;
+    static final int INDEX_SET = 15;
+
+    static final int BLOCK = 32;
+    static final int CLASS = 33;
+    static final int EXPRESSION = 34;
+    static final int FUNCTION = 35;
+    static final int IF = 36;
+    static final int PRINT = 37;
+    static final int RETURN = 38;
+    static final int VAR = 39;
+    static final int WHILE = 40;
+    static final int FOR = 41;
+
+    //kinds of literal values
+    static final int NIL = 0;
+    static final int TRUE = 1;
+    static final int FALSE = 2;
+    static final int NUMBER = 3;
+    static final int STRING = 4;
+
+    private final Map<String, Integer> stringIndex = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+    private ByteBuffer body = ByteBuffer.allocate(1 << 16);
+
+    byte[] write(List<Stmt> statements){
+        writeInt(statements.size());
+        for(Stmt statement: statements){
+            write(statement);
+        }
+
+        List<byte[]> encoded = new ArrayList<>();
+        int size = 12;
+        for(String string: strings){
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            encoded.add(bytes);
+            size += 4 + bytes.length;
+        }
+
+        ByteBuffer image = ByteBuffer.allocate(size + body.position());
+        image.putInt(MAGIC);
+        image.putInt(VERSION);
+        image.putInt(encoded.size());
+        for(byte[] bytes: encoded){
+            image.putInt(bytes.length);
+            image.put(bytes);
+        }
+        image.put(body.array(), 0, body.position());
+        return image.array();
+    }
+
+    //------------------------------------------------------------------------------STATEMENTS:
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt){
+        writeByte(BLOCK);
+        writeStatements(stmt.statements);
+        writeInt(stmt.slotCount);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt){
+        writeByte(CLASS);
+        write(stmt.name);
+        write(stmt.superclass);
+        writeInt(stmt.methods.size());
+        for(Stmt.Function method: stmt.methods){
+            write(method);
+        }
+        writeInt(stmt.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt){
+        writeByte(EXPRESSION);
+        write(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt){
+        writeByte(FUNCTION);
+        write(stmt.name);
+        writeInt(stmt.params.size());
+        for(Token param: stmt.params){
+            write(param);
+        }
+        writeStatements(stmt.body);
+        writeInt(stmt.slot);
+        writeInt(stmt.slotCount);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt){
+        writeByte(FOR);
+        write(stmt.initializer);
+        write(stmt.condition);
+        write(stmt.increment);
+        write(stmt.body);
+        writeInt(stmt.slotCount);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt){
+        writeByte(IF);
+        write(stmt.condition);
+        write(stmt.thenBranch);
+        write(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt){
+        writeByte(PRINT);
+        write(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt){
+        writeByte(RETURN);
+        write(stmt.keyword);
+        write(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt){
+        writeByte(VAR);
+        write(stmt.name);
+        write(stmt.initializer);
+        writeInt(stmt.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt){
+        writeByte(WHILE);
+        write(stmt.condition);
+        write(stmt.body);
+        return null;
+    }
+
+    //------------------------------------------------------------------------------EXPRESSIONS:
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr){
+        writeByte(ASSIGN);
+        write(expr.name);
+        write(expr.value);
+        writeInt(expr.depth);
+        writeInt(expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr){
+        writeByte(BINARY);
+        write(expr.left);
+        write(expr.operator);
+        write(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr){
+        writeByte(TERNARY);
+        write(expr.condition);
+        write(expr.thenExpr);
+        write(expr.elseExpr);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr){
+        writeByte(CALL);
+        write(expr.callee);
+        write(expr.paren);
+        writeInt(expr.arguments.size());
+        for(Expr argument: expr.arguments){
+            write(argument);
+        }
+        writeByte(expr.tail ? 1 : 0);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr){
+        writeByte(GET);
+        write(expr.object);
+        write(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr){
+        writeByte(GROUPING);
+        write(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr){
+        writeByte(INDEX);
+        write(expr.object);
+        write(expr.bracket);
+        write(expr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexSetExpr(Expr.IndexSet expr){
+        writeByte(INDEX_SET);
+        write(expr.object);
+        write(expr.bracket);
+        write(expr.index);
+        write(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr){
+        writeByte(LITERAL);
+        Object value = expr.value;
+        if(value == null){
+            writeByte(NIL);
+        }else if(value instanceof Boolean){
+            writeByte((Boolean)value ? TRUE : FALSE);
+        }else if(value instanceof Double){
+            writeByte(NUMBER);
+            ensure(8);
+            body.putDouble((Double)value);
+        }else{
+            writeByte(STRING);
+            writeInt(string((String)value));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr){
+        writeByte(LOGICAL);
+        write(expr.left);
+        write(expr.operator);
+        write(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr){
+        writeByte(SET);
+        write(expr.object);
+        write(expr.name);
+        write(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr){
+        writeByte(SUPER);
+        write(expr.keyword);
+        write(expr.method);
+        writeInt(expr.depth);
+        writeInt(expr.slot);
+        writeInt(expr.thisDepth);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr){
+        writeByte(THIS);
+        write(expr.keyword);
+        writeInt(expr.depth);
+        writeInt(expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr){
+        writeByte(UNARY);
+        write(expr.operator);
+        write(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr){
+        writeByte(VARIABLE);
+        write(expr.name);
+        writeInt(expr.depth);
+        writeInt(expr.slot);
+        return null;
+    }
+
+    //------------------------------------------------------------------------------ENCODING:
+
+    private void write(Stmt stmt){
+        if(stmt == null){
+            writeByte(NULL);
+            return;
+        }
+        stmt.accept(this);
+    }
+
+    private void write(Expr expr){
+        if(expr == null){
+            writeByte(NULL);
+            return;
+        }
+        expr.accept(this);
+    }
+
+    private void writeStatements(List<Stmt> statements){
+        writeInt(statements.size());
+        for(Stmt statement: statements){
+            write(statement);
+        }
+    }
+
+    //the literal isn't stored, AstReader gets it back from the lexeme
+    private void write(Token token){
+        writeByte(token._type.ordinal());
+        writeInt(string(token._lexeme));
+        writeInt(token._line);
+    }
+
+    private int string(String value){
+        Integer index = stringIndex.get(value);
+        if(index == null){
+            index = strings.size();
+            strings.add(value);
+            stringIndex.put(value, index);
+        }
+        return index;
+    }
+
+    private void writeByte(int value){
+        ensure(1);
+        body.put((byte)value);
+    }
+
+    private void writeInt(int value){
+        ensure(4);
+        body.putInt(value);
+    }
+
+    private void ensure(int count){
+        if(body.remaining() >= count)
+            return;
+
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(body.capacity() * 2, body.position() + count));
+        bigger.put(body.array(), 0, body.position());
+        body = bigger;
+    }
+}
@@ -0,0 +1,47 @@
+package mul;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+//compiled code of a single function: the instruction stream,
+//the source line of every byte and the constant pool
+class Chunk{
+    byte[] code = new byte[16];
+    int[] lines = new int[16];
+    int count = 0;
+
+    Object[] constants = new Object[8];
+    int constantCount = 0;
+    //numbers and strings are deduplicated, functions never are
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+
+    void write(int value, int line){
+        if(count == code.length){
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+
+        code[count] = (byte)value;
+        lines[count] = line;
+        count++;
+    }
+
+    int addConstant(Object value){
+        boolean shared = value instanceof Double || value instanceof String;
+        if(shared){
+            Integer index = constantIndex.get(value);
+            if(index != null)
+                return index;
+        }
+
+        if(constantCount == constants.length)
+            constants = Arrays.copyOf(constants, constantCount * 2);
+
+        constants[constantCount] = value;
+        if(shared)
+            constantIndex.put(value, constantCount);
+
+        return constantCount++;
+    }
+}
@@ -0,0 +1,273 @@
+package mul;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//just enough of the class file format to emit a class with a
+//constructor and a couple of methods, version 49 class files are
+//verified by type inference so no stack map frames are needed
+class ClassWriter{
+    private static final int VERSION = 49;
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    //opcodes used by JitCompiler
+    static final int ACONST_NULL = 0x01;
+    static final int ICONST_0 = 0x03;
+    static final int ICONST_1 = 0x04;
+    static final int DCONST_0 = 0x0e;
+    static final int DCONST_1 = 0x0f;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC2_W = 0x14;
+    static final int ALOAD = 0x19;
+    static final int DLOAD = 0x18;
+    static final int AALOAD = 0x32;
+    static final int DSTORE = 0x39;
+    static final int POP = 0x57;
+    static final int POP2 = 0x58;
+    static final int DUP = 0x59;
+    static final int DUP2 = 0x5c;
+    static final int DUP2_X2 = 0x5e;
+    static final int SWAP = 0x5f;
+    static final int DADD = 0x63;
+    static final int DSUB = 0x67;
+    static final int DMUL = 0x6b;
+    static final int DDIV = 0x6f;
+    static final int DNEG = 0x77;
+    static final int IXOR = 0x82;
+    static final int DCMPL = 0x97;
+    static final int DCMPG = 0x98;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int IFLT = 0x9b;
+    static final int IFGE = 0x9c;
+    static final int IFGT = 0x9d;
+    static final int IFLE = 0x9e;
+    static final int IF_ICMPEQ = 0x9f;
+    static final int IF_ICMPNE = 0xa0;
+    static final int GOTO = 0xa7;
+    static final int ARETURN = 0xb0;
+    static final int RETURN = 0xb1;
+    static final int GETSTATIC = 0xb2;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+    static final int CHECKCAST = 0xc0;
+    static final int INSTANCEOF = 0xc1;
+
+    private final List<Object[]> pool = new ArrayList<>();
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolSize = 1;
+
+    private final int thisClass;
+    private final int superClass;
+    private final int[] interfaces;
+    private final List<byte[]> methods = new ArrayList<>();
+
+    ClassWriter(String name, String superName, String... interfaceNames){
+        thisClass = classRef(name);
+        superClass = classRef(superName);
+        interfaces = new int[interfaceNames.length];
+        for(int i = 0; i < interfaceNames.length; ++i){
+            interfaces[i] = classRef(interfaceNames[i]);
+        }
+    }
+
+    //------------------------------------------------------------------------------CONSTANT POOL:
+
+    int utf8(String value){
+        return constant("U" + value, 1, value);
+    }
+
+    int classRef(String internalName){
+        return constant("C" + internalName, 7, utf8(internalName));
+    }
+
+    int doubleConstant(double value){
+        //doubles take up two pool entries
+        return constant("D" + Double.doubleToRawLongBits(value), 6, value);
+    }
+
+    int fieldRef(String owner, String name, String descriptor){
+        return constant("F" + owner + "." + name + descriptor, 9, classRef(owner), nameAndType(name, descriptor));
+    }
+
+    int methodRef(String owner, String name, String descriptor){
+        return constant("M" + owner + "." + name + descriptor, 10, classRef(owner), nameAndType(name, descriptor));
+    }
+
+    private int nameAndType(String name, String descriptor){
+        return constant("N" + name + descriptor, 12, utf8(name), utf8(descriptor));
+    }
+
+    private int constant(String key, int tag, Object... values){
+        Integer index = poolIndex.get(key);
+        if(index != null)
+            return index;
+
+        Object[] entry = new Object[values.length + 1];
+        entry[0] = tag;
+        System.arraycopy(values, 0, entry, 1, values.length);
+        pool.add(entry);
+
+        index = poolSize;
+        poolSize += tag == 6 ? 2 : 1;
+        poolIndex.put(key, index);
+        return index;
+    }
+
+    //------------------------------------------------------------------------------METHODS:
+
+    void addMethod(int access, String name, String descriptor, Code code){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try{
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(1);
+
+            out.writeShort(utf8("Code"));
+            out.writeInt(12 + code.length);
+            out.writeShort(code.maxStack);
+            out.writeShort(code.maxLocals);
+            out.writeInt(code.length);
+            out.write(code.bytes, 0, code.length);
+            out.writeShort(0);  //exception table
+            out.writeShort(0);  //attributes
+        }catch(IOException e){
+            throw new IllegalStateException(e);
+        }
+
+        methods.add(bytes.toByteArray());
+    }
+
+    byte[] toByteArray(){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try{
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+
+            out.writeShort(poolSize);
+            for(Object[] entry: pool){
+                int tag = (int)entry[0];
+                out.writeByte(tag);
+                switch(tag){
+                    case 1:  out.writeUTF((String)entry[1]); break;
+                    case 6:  out.writeDouble((double)entry[1]); break;
+                    case 7:  out.writeShort((int)entry[1]); break;
+                    default:
+                        out.writeShort((int)entry[1]);
+                        out.writeShort((int)entry[2]);
+                }
+            }
+
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaces.length);
+            for(int index: interfaces){
+                out.writeShort(index);
+            }
+
+            out.writeShort(0);  //fields
+            out.writeShort(methods.size());
+            for(byte[] method: methods){
+                out.write(method);
+            }
+            out.writeShort(0);  //attributes
+        }catch(IOException e){
+            throw new IllegalStateException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    //bytecode of a single method, keeps track of the operand stack
+    //depth as instructions are emitted so max_stack comes out right
+    static class Code{
+        byte[] bytes = new byte[64];
+        int length = 0;
+        int maxLocals;
+        int maxStack = 0;
+        private int stack = 0;
+
+        Code(int maxLocals){
+            this.maxLocals = maxLocals;
+        }
+
+        //stackChange is the net effect of the instruction on the operand stack
+        void op(int opcode, int stackChange){
+            put(opcode);
+            adjust(stackChange);
+        }
+
+        void op1(int opcode, int operand, int stackChange){
+            put(opcode);
+            put(operand);
+            adjust(stackChange);
+        }
+
+        void op2(int opcode, int operand, int stackChange){
+            put(opcode);
+            put(operand >> 8);
+            put(operand);
+            adjust(stackChange);
+        }
+
+        //emits a branch with a placeholder offset, returns the position to patch
+        int jump(int opcode, int stackChange){
+            int position = length;
+            op2(opcode, 0, stackChange);
+            return position;
+        }
+
+        //points the branch emitted at position to the current end of the code
+        void patch(int position){
+            patchTo(position, length);
+        }
+
+        void patchTo(int position, int target){
+            int offset = target - position;
+            if(offset > Short.MAX_VALUE || offset < Short.MIN_VALUE)
+                throw new IllegalStateException("Branch offset out of range.");
+
+            bytes[position+1] = (byte)(offset >> 8);
+            bytes[position+2] = (byte)offset;
+        }
+
+        //the stack depth is not known after an unconditional jump,
+        //code generators reset it at the next join point
+        void setStack(int depth){
+            stack = depth;
+        }
+
+        int stack(){
+            return stack;
+        }
+
+        private void adjust(int stackChange){
+            stack += stackChange;
+            if(stack > maxStack)
+                maxStack = stack;
+        }
+
+        private void put(int value){
+            if(length == bytes.length)
+                bytes = Arrays.copyOf(bytes, length * 2);
+
+            bytes[length++] = (byte)value;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package mul;
+
+//body of a Mul function translated to JVM bytecode by JitCompiler,
+//the generated class only implements the entry point matching the
+//arity of the function, invoke() for more than three parameters
+interface CompiledFunction{
+    //returned when the arguments don't fit the compiled code,
+    //the caller then runs the function on the tree-walker
+    Object DEOPT = new Object();
+
+    default Object invoke0(){
+        throw new IllegalStateException("invoke0");
+    }
+
+    default Object invoke1(Object a){
+        throw new IllegalStateException("invoke1");
+    }
+
+    default Object invoke2(Object a, Object b){
+        throw new IllegalStateException("invoke2");
+    }
+
+    default Object invoke3(Object a, Object b, Object c){
+        throw new IllegalStateException("invoke3");
+    }
+
+    default Object invoke(Object[] arguments){
+        throw new IllegalStateException("invoke");
+    }
+}
@@ -0,0 +1,747 @@
+package mul;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//translates resolved statements into bytecode for the VM,
+//locals live in stack slots and captured variables become upvalues
+class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
+    private final VM vm;
+    private FunctionState current = null;
+    private ClassState currentClass = null;
+    //line of the token currently being compiled, recorded for every emitted byte
+    private int line = 1;
+    private boolean hadError = false;
+
+    Compiler(VM vm){
+        this.vm = vm;
+    }
+
+    private enum FunctionType{
+        SCRIPT,
+        FUNCTION,
+        METHOD,
+        INIT
+    };
+
+    private static class Local{
+        final String name;
+        int depth;
+        boolean isCaptured = false;
+
+        Local(String name, int depth){
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private static class Upvalue{
+        final int index;
+        final boolean isLocal;
+
+        Upvalue(int index, boolean isLocal){
+            this.index = index;
+            this.isLocal = isLocal;
+        }
+    }
+
+    private static class FunctionState{
+        final FunctionState enclosing;
+        final VmFunction function;
+        final FunctionType type;
+        final List<Local> locals = new ArrayList<>();
+        final List<Upvalue> upvalues = new ArrayList<>();
+        int scopeDepth = 0;
+
+        FunctionState(FunctionState enclosing, VmFunction function, FunctionType type){
+            this.enclosing = enclosing;
+            this.function = function;
+            this.type = type;
+
+            //slot zero holds the receiver in methods and the callee otherwise
+            if(type == FunctionType.METHOD || type == FunctionType.INIT){
+                locals.add(new Local("this", 0));
+            }else{
+                locals.add(new Local("", 0));
+            }
+        }
+    }
+
+    private static class ClassState{
+        final ClassState enclosing;
+        boolean hasSuperclass = false;
+
+        ClassState(ClassState enclosing){
+            this.enclosing = enclosing;
+        }
+    }
+
+    //returns null if the program couldn't be compiled
+    VmFunction compile(List<Stmt> statements){
+        current = new FunctionState(null, new VmFunction(null, 0), FunctionType.SCRIPT);
+
+        for(Stmt statement: statements){
+            compile(statement);
+        }
+        emitReturn();
+
+        VmFunction script = current.function;
+        current = null;
+
+        return hadError ? null : script;
+    }
+
+    //------------------------------------------------------------------------------STATEMENTS:
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block block){
+        beginScope();
+        for(Stmt statement: block.statements){
+            compile(statement);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt){
+        line = stmt.name._line;
+        String name = stmt.name._lexeme;
+        int nameConstant = makeConstant(name);
+        declareVariable(name);
+
+        emitOp(OpCode.CLASS);
+        emitShort(nameConstant);
+        defineVariable(name);
+
+        ClassState classState = new ClassState(currentClass);
+        currentClass = classState;
+
+        if(stmt.superclass != null){
+            compile(stmt.superclass);
+
+            beginScope();
+            addLocal("super");
+            markInitialized();
+
+            namedVariable(name);
+            line = stmt.superclass.name._line;
+            emitOp(OpCode.INHERIT);
+            classState.hasSuperclass = true;
+        }
+
+        namedVariable(name);
+        for(Stmt.Function method: stmt.methods){
+            FunctionType type = FunctionType.METHOD;
+            if(method.name._lexeme.equals("init"))
+                type = FunctionType.INIT;
+
+            function(method, type);
+            line = method.name._line;
+            emitOp(OpCode.METHOD);
+            emitShort(makeConstant(method.name._lexeme));
+        }
+        emitOp(OpCode.POP);
+
+        if(classState.hasSuperclass)
+            endScope();
+
+        currentClass = currentClass.enclosing;
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt){
+        compile(stmt.expression);
+        emitOp(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt){
+        line = stmt.name._line;
+        declareVariable(stmt.name._lexeme);
+        //the function may refer to itself
+        markInitialized();
+        function(stmt, FunctionType.FUNCTION);
+        defineVariable(stmt.name._lexeme);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt){
+        beginScope();
+        if(stmt.initializer != null)
+            compile(stmt.initializer);
+
+        int loopStart = current.function.chunk.count;
+        int exitJump = -1;
+        if(stmt.condition != null){
+            compile(stmt.condition);
+            exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+            emitOp(OpCode.POP);
+        }
+
+        compile(stmt.body);
+        if(stmt.increment != null){
+            compile(stmt.increment);
+            emitOp(OpCode.POP);
+        }
+        emitLoop(loopStart);
+
+        if(exitJump != -1){
+            patchJump(exitJump);
+            emitOp(OpCode.POP);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt){
+        compile(stmt.condition);
+
+        int thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emitOp(OpCode.POP);
+        compile(stmt.thenBranch);
+
+        int elseJump = emitJump(OpCode.JUMP);
+        patchJump(thenJump);
+        emitOp(OpCode.POP);
+
+        if(stmt.elseBranch != null)
+            compile(stmt.elseBranch);
+        patchJump(elseJump);
+
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt){
+        compile(stmt.expression);
+        emitOp(OpCode.PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt){
+        line = stmt.keyword._line;
+
+        if(stmt.value == null){
+            emitReturn();
+        }else{
+            compile(stmt.value);
+            emitOp(OpCode.RETURN);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt){
+        line = stmt.name._line;
+        declareVariable(stmt.name._lexeme);
+
+        if(stmt.initializer != null){
+            compile(stmt.initializer);
+        }else{
+            emitOp(OpCode.NIL);
+        }
+
+        line = stmt.name._line;
+        defineVariable(stmt.name._lexeme);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt){
+        int loopStart = current.function.chunk.count;
+        compile(stmt.condition);
+
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emitOp(OpCode.POP);
+        compile(stmt.body);
+        emitLoop(loopStart);
+
+        patchJump(exitJump);
+        emitOp(OpCode.POP);
+        return null;
+    }
+
+    //------------------------------------------------------------------------------EXPRESSIONS:
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr){
+        compile(expr.value);
+        line = expr.name._line;
+        setVariable(expr.name._lexeme);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr){
+        //the tree-walker evaluates the right operand first, keep that order
+        compile(expr.right);
+        compile(expr.left);
+        line = expr.operator._line;
+
+        switch(expr.operator._type){
+            case PLUS:          emitOp(OpCode.ADD); break;
+            case MINUS:         emitOp(OpCode.SUBTRACT); break;
+            case STAR:          emitOp(OpCode.MULTIPLY); break;
+            case SLASH:         emitOp(OpCode.DIVIDE); break;
+            case GREATER:       emitOp(OpCode.GREATER); break;
+            case GREATER_EQUAL: emitOp(OpCode.GREATER_EQUAL); break;
+            case LESSER:        emitOp(OpCode.LESSER); break;
+            case LESSER_EQUAL:  emitOp(OpCode.LESSER_EQUAL); break;
+            case EQUAL_EQUAL:   emitOp(OpCode.EQUAL); break;
+            case BANG_EQUAL:    emitOp(OpCode.NOT_EQUAL); break;
+            default:
+                //the tree-walker yields nil for operators it doesn't know
+                emitOp(OpCode.POP);
+                emitOp(OpCode.POP);
+                emitOp(OpCode.NIL);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr){
+        compile(expr.condition);
+
+        int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emitOp(OpCode.POP);
+        compile(expr.thenExpr);
+
+        int endJump = emitJump(OpCode.JUMP);
+        patchJump(elseJump);
+        emitOp(OpCode.POP);
+        compile(expr.elseExpr);
+        patchJump(endJump);
+
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr){
+        if(expr.arguments.size() > 255){
+            error(expr.paren._line, "Can't have more than 255 arguments!");
+            return null;
+        }
+
+        //obj.method(...) and super.method(...) skip creating the bound method
+        if(expr.callee instanceof Expr.Get){
+            Expr.Get get = (Expr.Get)expr.callee;
+            compile(get.object);
+            compileArguments(expr.arguments);
+
+            line = expr.paren._line;
+            emitOp(expr.tail ? OpCode.TAIL_INVOKE : OpCode.INVOKE);
+            emitShort(makeConstant(get.name._lexeme));
+            emitByte(expr.arguments.size());
+            return null;
+        }
+
+        if(expr.callee instanceof Expr.Super){
+            Expr.Super zuper = (Expr.Super)expr.callee;
+            line = zuper.keyword._line;
+            namedVariable("this");
+            compileArguments(expr.arguments);
+            line = zuper.keyword._line;
+            namedVariable("super");
+
+            line = zuper.method._line;
+            emitOp(expr.tail ? OpCode.TAIL_SUPER_INVOKE : OpCode.SUPER_INVOKE);
+            emitShort(makeConstant(zuper.method._lexeme));
+            emitByte(expr.arguments.size());
+            return null;
+        }
+
+        compile(expr.callee);
+        compileArguments(expr.arguments);
+
+        line = expr.paren._line;
+        emitOp(expr.tail ? OpCode.TAIL_CALL : OpCode.CALL);
+        emitByte(expr.arguments.size());
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr){
+        compile(expr.object);
+        line = expr.name._line;
+        emitOp(OpCode.GET_PROPERTY);
+        emitShort(makeConstant(expr.name._lexeme));
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr){
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr){
+        compile(expr.object);
+        compile(expr.index);
+        line = expr.bracket._line;
+        emitOp(OpCode.GET_INDEX);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexSetExpr(Expr.IndexSet expr){
+        compile(expr.object);
+        compile(expr.index);
+        line = expr.bracket._line;
+        emitOp(OpCode.CHECK_INDEX);
+        compile(expr.value);
+        line = expr.bracket._line;
+        emitOp(OpCode.SET_INDEX);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr){
+        if(expr.value == null){
+            emitOp(OpCode.NIL);
+        }else if(expr.value == Boolean.TRUE){
+            emitOp(OpCode.TRUE);
+        }else if(expr.value == Boolean.FALSE){
+            emitOp(OpCode.FALSE);
+        }else{
+            emitOp(OpCode.CONSTANT);
+            emitShort(makeConstant(expr.value));
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr){
+        compile(expr.left);
+
+        if(expr.operator._type == TokenType.OR){
+            int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+            int endJump = emitJump(OpCode.JUMP);
+
+            patchJump(elseJump);
+            emitOp(OpCode.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        }else{
+            int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+
+            emitOp(OpCode.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr){
+        compile(expr.object);
+        line = expr.name._line;
+        emitOp(OpCode.CHECK_INSTANCE);
+        compile(expr.value);
+        line = expr.name._line;
+        emitOp(OpCode.SET_PROPERTY);
+        emitShort(makeConstant(expr.name._lexeme));
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr){
+        line = expr.keyword._line;
+        namedVariable("this");
+        namedVariable("super");
+
+        line = expr.method._line;
+        emitOp(OpCode.GET_SUPER);
+        emitShort(makeConstant(expr.method._lexeme));
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr){
+        line = expr.keyword._line;
+        namedVariable("this");
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr){
+        compile(expr.right);
+        line = expr.operator._line;
+
+        switch(expr.operator._type){
+            case MINUS: emitOp(OpCode.NEGATE); break;
+            case BANG:  emitOp(OpCode.NOT); break;
+            default:
+                emitOp(OpCode.POP);
+                emitOp(OpCode.NIL);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr){
+        line = expr.name._line;
+        namedVariable(expr.name._lexeme);
+        return null;
+    }
+
+    //------------------------------------------------------------------------------HELPERS:
+
+    private void compile(Stmt stmt){
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr){
+        expr.accept(this);
+    }
+
+    private void compileArguments(List<Expr> arguments){
+        for(Expr argument: arguments){
+            compile(argument);
+        }
+    }
+
+    //compiles the body into its own function and emits the closure creating it
+    private void function(Stmt.Function stmt, FunctionType type){
+        if(stmt.params.size() > 255)
+            error(stmt.name._line, "Cannot have more than 255 parameters!");
+
+        current = new FunctionState(current, new VmFunction(stmt.name._lexeme, stmt.params.size()), type);
+        beginScope();
+
+        for(Token param: stmt.params){
+            line = param._line;
+            addLocal(param._lexeme);
+            markInitialized();
+        }
+
+        for(Stmt statement: stmt.body){
+            compile(statement);
+        }
+        emitReturn();
+
+        FunctionState compiled = current;
+        current = current.enclosing;
+        compiled.function.upvalueCount = compiled.upvalues.size();
+
+        line = stmt.name._line;
+        emitOp(OpCode.CLOSURE);
+        emitShort(makeConstant(compiled.function));
+        for(Upvalue upvalue: compiled.upvalues){
+            emitByte(upvalue.isLocal ? 1 : 0);
+            emitByte(upvalue.index);
+        }
+    }
+
+    private void namedVariable(String name){
+        int slot = resolveLocal(current, name);
+        if(slot != -1){
+            emitOp(OpCode.GET_LOCAL);
+            emitByte(slot);
+            return;
+        }
+
+        slot = resolveUpvalue(current, name);
+        if(slot != -1){
+            emitOp(OpCode.GET_UPVALUE);
+            emitByte(slot);
+            return;
+        }
+
+        emitOp(OpCode.GET_GLOBAL);
+        emitShort(vm.globalSlot(name));
+    }
+
+    private void setVariable(String name){
+        int slot = resolveLocal(current, name);
+        if(slot != -1){
+            emitOp(OpCode.SET_LOCAL);
+            emitByte(slot);
+            return;
+        }
+
+        slot = resolveUpvalue(current, name);
+        if(slot != -1){
+            emitOp(OpCode.SET_UPVALUE);
+            emitByte(slot);
+            return;
+        }
+
+        emitOp(OpCode.SET_GLOBAL);
+        emitShort(vm.globalSlot(name));
+    }
+
+    private int resolveLocal(FunctionState state, String name){
+        for(int i = state.locals.size()-1; i >= 0; --i){
+            if(state.locals.get(i).name.equals(name))
+                return i;
+        }
+
+        return -1;
+    }
+
+    private int resolveUpvalue(FunctionState state, String name){
+        if(state.enclosing == null)
+            return -1;
+
+        int local = resolveLocal(state.enclosing, name);
+        if(local != -1){
+            state.enclosing.locals.get(local).isCaptured = true;
+            return addUpvalue(state, local, true);
+        }
+
+        int upvalue = resolveUpvalue(state.enclosing, name);
+        if(upvalue != -1)
+            return addUpvalue(state, upvalue, false);
+
+        return -1;
+    }
+
+    private int addUpvalue(FunctionState state, int index, boolean isLocal){
+        for(int i = 0; i < state.upvalues.size(); ++i){
+            Upvalue upvalue = state.upvalues.get(i);
+            if(upvalue.index == index && upvalue.isLocal == isLocal)
+                return i;
+        }
+
+        if(state.upvalues.size() == 256){
+            error(line, "Too many closure variables in function.");
+            return 0;
+        }
+
+        state.upvalues.add(new Upvalue(index, isLocal));
+        return state.upvalues.size()-1;
+    }
+
+    private void declareVariable(String name){
+        if(current.scopeDepth == 0)
+            return;
+
+        addLocal(name);
+    }
+
+    //locals are defined by leaving their value on the stack
+    private void defineVariable(String name){
+        if(current.scopeDepth > 0){
+            markInitialized();
+            return;
+        }
+
+        emitOp(OpCode.DEFINE_GLOBAL);
+        emitShort(vm.globalSlot(name));
+    }
+
+    private void addLocal(String name){
+        if(current.locals.size() == 256){
+            error(line, "Too many local variables in function.");
+            return;
+        }
+
+        //depth is set once the variable is initialized
+        current.locals.add(new Local(name, -1));
+    }
+
+    private void markInitialized(){
+        if(current.scopeDepth == 0)
+            return;
+
+        current.locals.get(current.locals.size()-1).depth = current.scopeDepth;
+    }
+
+    private void beginScope(){
+        current.scopeDepth++;
+    }
+
+    private void endScope(){
+        current.scopeDepth--;
+
+        List<Local> locals = current.locals;
+        while(!locals.isEmpty() && locals.get(locals.size()-1).depth > current.scopeDepth){
+            if(locals.get(locals.size()-1).isCaptured){
+                emitOp(OpCode.CLOSE_UPVALUE);
+            }else{
+                emitOp(OpCode.POP);
+            }
+            locals.remove(locals.size()-1);
+        }
+    }
+
+    private int makeConstant(Object value){
+        int index = current.function.chunk.addConstant(value);
+        if(index > 0xffff){
+            error(line, "Too many constants in one chunk.");
+            return 0;
+        }
+
+        return index;
+    }
+
+    private void emitReturn(){
+        if(current.type == FunctionType.INIT){
+            emitOp(OpCode.GET_LOCAL);
+            emitByte(0);
+        }else{
+            emitOp(OpCode.NIL);
+        }
+
+        emitOp(OpCode.RETURN);
+    }
+
+    private int emitJump(byte instruction){
+        emitOp(instruction);
+        emitByte(0xff);
+        emitByte(0xff);
+        return current.function.chunk.count - 2;
+    }
+
+    private void patchJump(int offset){
+        Chunk chunk = current.function.chunk;
+        //-2 to adjust for the bytes of the jump offset itself
+        int jump = chunk.count - offset - 2;
+        if(jump > 0xffff)
+            error(line, "Too much code to jump over.");
+
+        chunk.code[offset] = (byte)((jump >> 8) & 0xff);
+        chunk.code[offset+1] = (byte)(jump & 0xff);
+    }
+
+    private void emitLoop(int loopStart){
+        emitOp(OpCode.LOOP);
+
+        int offset = current.function.chunk.count - loopStart + 2;
+        if(offset > 0xffff)
+            error(line, "Loop body too large.");
+
+        emitByte((offset >> 8) & 0xff);
+        emitByte(offset & 0xff);
+    }
+
+    private void emitOp(byte op){
+        current.function.chunk.write(op, line);
+    }
+
+    private void emitByte(int value){
+        current.function.chunk.write(value, line);
+    }
+
+    private void emitShort(int value){
+        emitByte((value >> 8) & 0xff);
+        emitByte(value & 0xff);
+    }
+
+    private void error(int line, String message){
+        Mul.error(line, message);
+        hadError = true;
+    }
+}
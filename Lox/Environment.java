@@ -1,33 +1,43 @@
 package mul;
 
-import java.util.HashMap;
-import java.util.Map;
-
+//a single frame of local variables, the resolver hands out
+//a slot index for every local so lookups are plain array accesses
 class Environment{
+    //marks a slot whose value lives unboxed in numbers
+    private static final Object UNBOXED = new Object();
+
     final Environment enclosing; 
-    private final Map<String, Object> values = new HashMap<>();
+    private final Object[] values;
+    //allocated the first time a number is stored unboxed
+    private double[] numbers = null;
 
-    Environment() {
-        this.enclosing = null;
-    }
+    Environment(Environment environment, int size) {
+        if(MulMetrics.ENABLED)
+            MulMetrics.ENVIRONMENTS.increment();
 
-    Environment(Environment environment) {
         this.enclosing = environment;
+        this.values = new Object[size];
     }
 
-    Object get(Token name){
-        if(values.containsKey(name._lexeme)){
-            return values.get(name._lexeme);
-        }
+    Object getAt(int distance, int slot){
+        return ancestor(distance).get(slot);
+    }
+
+    Object get(int slot){
+        Object value = values[slot];
+        if(value == UNBOXED)
+            return numbers[slot];
 
-        if(enclosing != null)
-            return enclosing.get(name);
+        return value;
+    }
 
-        throw new RuntimeError(name, "Undefined variable '" + name._lexeme + "'.");
+    boolean isUnboxed(int slot){
+        return values[slot] == UNBOXED;
     }
 
-    Object getAt(int distance, String name){
-        return ancestor(distance).values.get(name);
+    //only valid if isUnboxed(slot)
+    double getNumber(int slot){
+        return numbers[slot];
     }
 
     Environment ancestor(int distance){
@@ -39,27 +49,17 @@ class Environment{
         return environment;
     }
 
-    void define(String name, Object value){
-        values.put(name, value);
+    void define(int slot, Object value){
+        values[slot] = value;
     }
 
-    void assign(Token name, Object value){
-        if(values.containsKey(name._lexeme)){
-            values.put(name._lexeme, value);
-            return;
-        }
-
-        if(enclosing != null){
-            enclosing.assign(name, value);
-            return;
-        }
-
-        throw new RuntimeError(name, "Undefined variable '" + name._lexeme + "'.");
-    }
+    void defineNumber(int slot, double value){
+        if(numbers == null)
+            numbers = new double[values.length];
 
-    void assignAt(int distance, Token name, Object value){
-        ancestor(distance).values.put(name._lexeme, value);
+        numbers[slot] = value;
+        values[slot] = UNBOXED;
     }
 
 
-}
\ No newline at end of file
+}
@@ -10,6 +10,8 @@ abstract class Expr {
     R visitCallExpr(Call expr);
     R visitGetExpr(Get expr);
     R visitGroupingExpr(Grouping expr);
+    R visitIndexExpr(Index expr);
+    R visitIndexSetExpr(IndexSet expr);
     R visitLiteralExpr(Literal expr);
     R visitLogicalExpr(Logical expr);
     R visitSetExpr(Set expr);
@@ -19,6 +21,10 @@ abstract class Expr {
     R visitVariableExpr(Variable expr);
   }
 
+  //depth of a variable reference the resolver couldn't bind to a local,
+  //its slot is then the one the name has in Globals
+  static final int GLOBAL = -1;
+
   // Nested Expr classes here...
 //> expr-assign
   static class Assign extends Expr {
@@ -34,6 +40,8 @@ abstract class Expr {
 
     final Token name;
     final Expr value;
+    int depth = GLOBAL;
+    int slot;
   }
 //< expr-assign
 //> expr-ternary
@@ -70,6 +78,9 @@ abstract class Expr {
     final Expr left;
     final Token operator;
     final Expr right;
+    //set once an operand turned out not to be a number,
+    //the interpreter then stops trying its unboxed fast path
+    boolean generic;
   }
 //< expr-binary
 //> expr-call
@@ -88,6 +99,10 @@ abstract class Expr {
     final Expr callee;
     final Token paren;
     final List<Expr> arguments;
+    //methods looked up by obj.method(...) calls, keyed by shape
+    InlineCache cache;
+    //set by the resolver when the call is the value of a return statement
+    boolean tail;
   }
 //< expr-call
 //> expr-get
@@ -104,6 +119,7 @@ abstract class Expr {
 
     final Expr object;
     final Token name;
+    InlineCache cache;
   }
 //< expr-get
 //> expr-grouping
@@ -120,6 +136,44 @@ abstract class Expr {
     final Expr expression;
   }
 //< expr-grouping
+//> expr-index
+  static class Index extends Expr {
+    Index(Expr object, Token bracket, Expr index) {
+      this.object = object;
+      this.bracket = bracket;
+      this.index = index;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitIndexExpr(this);
+    }
+
+    final Expr object;
+    final Token bracket;
+    final Expr index;
+  }
+//< expr-index
+//> expr-index-set
+  static class IndexSet extends Expr {
+    IndexSet(Expr object, Token bracket, Expr index, Expr value) {
+      this.object = object;
+      this.bracket = bracket;
+      this.index = index;
+      this.value = value;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitIndexSetExpr(this);
+    }
+
+    final Expr object;
+    final Token bracket;
+    final Expr index;
+    final Expr value;
+  }
+//< expr-index-set
 //> expr-literal
   static class Literal extends Expr {
     Literal(Object value) {
@@ -168,6 +222,7 @@ abstract class Expr {
     final Expr object;
     final Token name;
     final Expr value;
+    InlineCache cache;
   }
 //< expr-set
 //> expr-super
@@ -184,6 +239,10 @@ abstract class Expr {
 
     final Token keyword;
     final Token method;
+    int depth = GLOBAL;
+    int slot;
+    //depth of the method frame holding "this" in slot 0
+    int thisDepth;
   }
 //< expr-super
 //> expr-this
@@ -198,6 +257,8 @@ abstract class Expr {
     }
 
     final Token keyword;
+    int depth = GLOBAL;
+    int slot;
   }
 //< expr-this
 //> expr-unary
@@ -228,6 +289,8 @@ abstract class Expr {
     }
 
     final Token name;
+    int depth = GLOBAL;
+    int slot;
   }
 //< expr-variable
 
@@ -0,0 +1,55 @@
+package mul;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+//top level scope, anything the resolver couldn't bind to a local slot. every
+//global name gets a slot the first time the resolver sees it, which may be
+//before it's defined or even declared, so references are array accesses and
+//a REPL line redefining a name reuses its slot. slots are handed out for the
+//whole process, the same tree can be run by any interpreter
+class Globals{
+    //marks a slot whose name hasn't been defined yet
+    private static final Object UNDEFINED = new Object();
+
+    private static final Map<String, Integer> slots = new ConcurrentHashMap<>();
+
+    private Object[] values = new Object[0];
+
+    static int slot(String name){
+        Integer slot = slots.get(name);
+        if(slot != null)
+            return slot;
+
+        synchronized(slots){
+            return slots.computeIfAbsent(name, key -> slots.size());
+        }
+    }
+
+    Object get(Token name, int slot){
+        Object value = slot < values.length ? values[slot] : UNDEFINED;
+        if(value == UNDEFINED)
+            throw new RuntimeError(name, "Undefined variable '" + name._lexeme + "'.");
+
+        return value;
+    }
+
+    void define(String name, Object value){
+        int slot = slot(name);
+        if(slot >= values.length){
+            int length = values.length;
+            values = Arrays.copyOf(values, Math.max(slot + 1, length * 2));
+            Arrays.fill(values, length, values.length, UNDEFINED);
+        }
+
+        values[slot] = value;
+    }
+
+    void assign(Token name, int slot, Object value){
+        if(slot >= values.length || values[slot] == UNDEFINED)
+            throw new RuntimeError(name, "Undefined variable '" + name._lexeme + "'.");
+
+        values[slot] = value;
+    }
+}
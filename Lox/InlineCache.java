@@ -0,0 +1,59 @@
+package mul;
+
+//per node cache of field locations or methods keyed by shape, holds
+//up to SIZE shapes and stops learning new ones once full
+class InlineCache{
+    private static final int SIZE = 4;
+
+    private final Shape[] shapes = new Shape[SIZE];
+    private final int[] indices = new int[SIZE];
+    //for field stores that add a field: the shape after the store
+    private final Shape[] transitions = new Shape[SIZE];
+    //for method calls: the method the shape's class resolves the name to
+    private final MulFunction[] methods = new MulFunction[SIZE];
+    private int count = 0;
+
+    //returns the position of the shape in the cache, -1 on a miss
+    int find(Shape shape){
+        for(int i = 0; i < count; ++i){
+            if(shapes[i] == shape)
+                return i;
+        }
+
+        return -1;
+    }
+
+    int index(int entry){
+        return indices[entry];
+    }
+
+    Shape transition(int entry){
+        return transitions[entry];
+    }
+
+    MulFunction method(int entry){
+        return methods[entry];
+    }
+
+    void add(Shape shape, int index, Shape transition){
+        if(count == SIZE)
+            return;
+
+        shapes[count] = shape;
+        indices[count] = index;
+        transitions[count] = transition;
+        count++;
+    }
+
+    //root shapes are per class and method tables don't change once
+    //the class exists, so the shape alone decides the method
+    void add(Shape shape, MulFunction method){
+        if(count == SIZE)
+            return;
+
+        shapes[count] = shape;
+        indices[count] = -1;
+        methods[count] = method;
+        count++;
+    }
+}
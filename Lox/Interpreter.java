@@ -1,15 +1,31 @@
 package mul;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import static mul.TokenType.*;
 
-class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
-    Environment globals = new Environment();
-    private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object>{
+    //thrown by the unboxed evaluation path when a value isn't a number,
+    //carries the value so nothing has to be evaluated twice
+    private static class NotANumber extends RuntimeException{
+        final Object value;
+
+        NotANumber(Object value){
+            super(null, null, false, false);
+            this.value = value;
+        }
+    }
+
+    //statements complete with null, or with the value of a return statement
+    //that has to unwind to the enclosing call, this stands in for nil there
+    static final Object RETURN_NIL = new Object();
+
+    final Globals globals = new Globals();
+    //null while executing top level code
+    private Environment environment = null;
+    //set by --profile
+    Profiler profiler = null;
 
     Interpreter(){
         globals.define("clock", new MulCallable(){
@@ -17,13 +33,39 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
             public int arity(){return 0;}
 
             @Override
-            public Object call(Interpreter interpreter, List<Object> arguments){
+            public Object call(Interpreter interpreter, Object[] arguments){
                 return (double)System.currentTimeMillis() / 1000.0;
             }
 
             @Override
             public String toString(){return "<native fn>";}
         });
+
+        globals.define("array", new MulCallable(){
+            @Override
+            public int arity(){return 1;}
+
+            @Override
+            public Object call(Interpreter interpreter, Object[] arguments){
+                return MulArray.make(arguments[0]);
+            }
+
+            @Override
+            public String toString(){return "<native fn>";}
+        });
+
+        globals.define("len", new MulCallable(){
+            @Override
+            public int arity(){return 1;}
+
+            @Override
+            public Object call(Interpreter interpreter, Object[] arguments){
+                return MulArray.length(arguments[0]);
+            }
+
+            @Override
+            public String toString(){return "<native fn>";}
+        });
     }
 
     void interpret(List<Stmt> statements){
@@ -37,22 +79,25 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
         }
     }
 
-    private void execute(Stmt statement){
-        statement.accept(this);
-    }
+    private Object execute(Stmt statement){
+        if(MulMetrics.ENABLED)
+            MulMetrics.STATEMENTS.increment();
 
-    void resolve(Expr expr, int depth){
-        locals.put(expr, depth);
+        return statement.accept(this);
     }
 
-    void executeBlock(List<Stmt> statements, Environment environment){
+    //returns null, or the completion of the return statement that ended the block
+    Object executeBlock(List<Stmt> statements, Environment environment){
         Environment previous = this.environment;
         try {
             this.environment = environment;
 
             for(Stmt statement: statements){
-                execute(statement);
+                Object completion = execute(statement);
+                if(completion != null)
+                    return completion;
             }
+            return null;
             
         } finally {
             this.environment = previous;
@@ -60,12 +105,17 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
     
     }
 
-    private String stringify(Object object){
+    static String stringify(Object object){
         if(object == null)
             return "nil";
 
         if(object instanceof Double){
-            String text = object.toString();
+            double number = (double)object;
+            if(isPlainInteger(number))
+                return Long.toString((long)number);
+
+            //-0 is the only one left that ends in ".0"
+            String text = Double.toString(number);
             if(text.endsWith(".0"))
                 text = text.substring(0, text.length() - 2);
             return text;
@@ -74,8 +124,14 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
         return object.toString();
     }
 
+    //integral numbers Double.toString() writes as plain digits followed by ".0",
+    //bigger ones get an exponent. -0 is left out, a long has no sign for it
+    static boolean isPlainInteger(double number){
+        return number == (long)number && Math.abs(number) < 1e7 && Double.doubleToRawLongBits(number) != Long.MIN_VALUE;
+    }
+
     @Override
-    public Void visitClassStmt(Stmt.Class stmt){
+    public Object visitClassStmt(Stmt.Class stmt){
         Object superclass = null;
         if(stmt.superclass != null){
             superclass = evaluate(stmt.superclass);
@@ -83,15 +139,15 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
                 throw new RuntimeError(stmt.superclass.name, "superclass must be a class.");
         }
 
-        environment.define(stmt.name._lexeme, null);
+        define(stmt.name, stmt.slot, null);
         if(superclass != null){
-            environment = new Environment(environment);
-            environment.define("super", superclass);
+            environment = new Environment(environment, 1);
+            environment.define(0, superclass);
         }
 
-        Map<String, MulFunction> methods = new HashMap<>();
+        Map<String, MulFunction> methods = new IdentityHashMap<>();
         for(Stmt.Function method: stmt.methods){
-            MulFunction function = new MulFunction(method, environment, method.name._lexeme.equals("init"));
+            MulFunction function = new MulFunction(method, environment, method.name._lexeme == "init", true, null);
             methods.put(method.name._lexeme, function);
         }
 
@@ -101,99 +157,307 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
         if(superclass != null)
             environment = environment.enclosing;
 
-        environment.assign(stmt.name, klas);
+        if(environment == null){
+            globals.define(stmt.name._lexeme, klas);
+        }else{
+            environment.define(stmt.slot, klas);
+        }
 
         return null;
     }
 
     @Override
-    public Void visitVarStmt(Stmt.Var var){
+    public Object visitVarStmt(Stmt.Var var){
+        if(environment != null && var.initializer != null){
+            storeLocal(environment, var.slot, var.initializer);
+            return null;
+        }
+
         Object value = null;
 
         if(var.initializer != null){
             value = evaluate(var.initializer);
         }
 
-        environment.define(var.name._lexeme, value);
+        define(var.name, var.slot, value);
         return null;
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt){
+    public Object visitReturnStmt(Stmt.Return stmt){
         Object value = null;
 
-        if(stmt.value != null)
+        if(stmt.value instanceof Expr.Call && ((Expr.Call)stmt.value).tail){
+            value = tailCall((Expr.Call)stmt.value);
+        }else if(stmt.value != null){
             value = evaluate(stmt.value);
+        }
 
-        throw new Return(value);
+        return value == null ? RETURN_NIL : value;
     }
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt){
+    public Object visitFunctionStmt(Stmt.Function stmt){
         MulCallable function = new MulFunction(stmt, environment, false);
-        environment.define(stmt.name._lexeme, function);
+        define(stmt.name, stmt.slot, function);
         return null;
     }
 
     @Override
-    public Void visitPrintStmt(Stmt.Print print){
+    public Object visitPrintStmt(Stmt.Print print){
         Object value = evaluate(print.expression);
-        System.out.println(stringify(value));
+        Output.printValue(value);
         return null;
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While statement){
+    public Object visitWhileStmt(Stmt.While statement){
 
         while(isTruthy(evaluate(statement.condition))){
-            execute(statement.body);
+            Object completion = execute(statement.body);
+            if(completion != null)
+                return completion;
         }
         
         return null;
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If statement){
+    public Object visitForStmt(Stmt.For statement){
+        Environment previous = environment;
+        try{
+            //one environment for the whole loop if its variable is captured, the body opens its own if it needs one
+            if(statement.slotCount > 0)
+                environment = new Environment(environment, statement.slotCount);
+
+            if(statement.initializer != null)
+                execute(statement.initializer);
+
+            if(isCounted(statement)){
+                Object completion = countedLoop(statement);
+                if(completion != COUNTING_STOPPED)
+                    return completion;
+            }
+
+            while(statement.condition == null || isTruthy(evaluate(statement.condition))){
+                Object completion = execute(statement.body);
+                if(completion != null)
+                    return completion;
+
+                if(statement.increment != null)
+                    evaluateForEffect(statement.increment);
+            }
+            return null;
+
+        }finally{
+            environment = previous;
+        }
+    }
+
+    //loops of the form for(var i = ...; i < limit; i = i + step) where the limit is a
+    //literal or a variable, i is kept unboxed and compared and stepped without any boxing
+    private static boolean isCounted(Stmt.For loop){
+        if(!(loop.initializer instanceof Stmt.Var) || !(loop.condition instanceof Expr.Binary) || !(loop.increment instanceof Expr.Assign))
+            return false;
+
+        int slot = ((Stmt.Var)loop.initializer).slot;
+        Expr.Binary condition = (Expr.Binary)loop.condition;
+        Expr.Assign increment = (Expr.Assign)loop.increment;
+
+        if(!isComparison(condition.operator._type))
+            return false;
+        if(!isLoopVariable(condition.left, slot) || !(condition.right instanceof Expr.Literal || condition.right instanceof Expr.Variable))
+            return false;
+
+        if(increment.depth != 0 || increment.slot != slot || !(increment.value instanceof Expr.Binary))
+            return false;
+        Expr.Binary step = (Expr.Binary)increment.value;
+        return (step.operator._type == PLUS || step.operator._type == MINUS)
+            && isLoopVariable(step.left, slot)
+            && step.right instanceof Expr.Literal && ((Expr.Literal)step.right).value instanceof Double;
+    }
+
+    private static boolean isLoopVariable(Expr expr, int slot){
+        if(!(expr instanceof Expr.Variable))
+            return false;
+
+        Expr.Variable variable = (Expr.Variable)expr;
+        return variable.depth == 0 && variable.slot == slot;
+    }
+
+    //returned by countedLoop when the variable or the limit stopped being a number,
+    //the generic loop then carries on, starting with the condition
+    private static final Object COUNTING_STOPPED = new Object();
+
+    private Object countedLoop(Stmt.For loop){
+        Environment frame = environment;
+        int slot = ((Stmt.Var)loop.initializer).slot;
+        Expr.Binary condition = (Expr.Binary)loop.condition;
+        Expr.Binary increment = (Expr.Binary)((Expr.Assign)loop.increment).value;
+        double step = (double)((Expr.Literal)increment.right).value;
+        if(increment.operator._type == MINUS)
+            step = -step;
+
+        //an initializer the unboxed path doesn't compute, like a variable, leaves a boxed number
+        if(!frame.isUnboxed(slot)){
+            Object start = frame.get(slot);
+            if(!(start instanceof Double))
+                return COUNTING_STOPPED;
+            frame.defineNumber(slot, (double)start);
+        }
+
+        if(MulMetrics.ENABLED)
+            MulMetrics.COUNTED_LOOPS.increment();
+
+        for(;;){
+            if(!frame.isUnboxed(slot))
+                return COUNTING_STOPPED;
+
+            double limit;
+            try{
+                limit = evaluateNumber(condition.right);
+            }catch(NotANumber notANumber){
+                return COUNTING_STOPPED;
+            }
+
+            double value = frame.getNumber(slot);
+            boolean more;
+            switch(condition.operator._type){
+                case LESSER:        more = value < limit; break;
+                case LESSER_EQUAL:  more = value <= limit; break;
+                case GREATER:       more = value > limit; break;
+                default:            more = value >= limit; break;
+            }
+            if(!more)
+                return null;
+
+            Object completion = execute(loop.body);
+            if(completion != null)
+                return completion;
+
+            //the body stored something else than a number in the variable
+            if(!frame.isUnboxed(slot)){
+                evaluateForEffect(loop.increment);
+                return COUNTING_STOPPED;
+            }
+            frame.defineNumber(slot, frame.getNumber(slot) + step);
+        }
+    }
+
+    @Override
+    public Object visitIfStmt(Stmt.If statement){
         
         Object value = evaluate(statement.condition);
 
         if(isTruthy(value)){
-            execute(statement.elseBranch);
+            return execute(statement.thenBranch);
         }else if(statement.elseBranch != null){
-            execute(statement.elseBranch);
+            return execute(statement.elseBranch);
         }
        
         return null;
     }
 
     @Override
-    public Void visitBlockStmt(Stmt.Block block){
-        
-        executeBlock(block.statements, new Environment(environment));
-        return null;
+    public Object visitBlockStmt(Stmt.Block block){
+        //a block whose locals aren't captured keeps them in the enclosing environment
+        if(block.slotCount == 0){
+            for(Stmt statement: block.statements){
+                Object completion = execute(statement);
+                if(completion != null)
+                    return completion;
+            }
+            return null;
+        }
+
+        return executeBlock(block.statements, new Environment(environment, block.slotCount));
     }
 
     @Override
     public Object visitSuperExpr(Expr.Super expr){
-        int distance = locals.get(expr);
-        MulClass superclass = (MulClass)environment.getAt(distance, "super");
-        MulInstance object = (MulInstance)environment.getAt(distance-1, "this");
-        MulFunction method = (MulFunction)superclass.findMethod(expr.method._lexeme);
+        MulInstance object = (MulInstance)environment.getAt(expr.thisDepth, 0);
+        return superMethod(expr).bind(object);
+
+    }
+
+    private MulFunction superMethod(Expr.Super expr){
+        MulClass superclass = (MulClass)environment.getAt(expr.depth, expr.slot);
+        MulFunction method = superclass.findMethod(expr.method._lexeme);
 
         if(method == null)
             throw new RuntimeError(expr.method, "the method " + expr.method._lexeme + " doesn't exist.");
-        return method.bind(object);
-
+        return method;
     }
 
     @Override
     public Object visitGetExpr(Expr.Get expr){
-        Object object = evaluate(expr.object);
-        if(object instanceof MulInstance){
-            return ((MulInstance) object).get(expr.name);
+        return getProperty(expr, evaluate(expr.object));
+    }
+
+    private Object getProperty(Expr.Get expr, Object object){
+        if(!(object instanceof MulInstance))
+            throw new RuntimeError(expr.name, "Only instances have properties.");
+
+        MulInstance instance = (MulInstance)object;
+        if(expr.cache == null)
+            expr.cache = new InlineCache();
+
+        int entry = expr.cache.find(instance.shape);
+        if(entry >= 0){
+            if(MulMetrics.ENABLED)
+                MulMetrics.PROPERTY_HITS.increment();
+            return instance.getField(expr.cache.index(entry));
         }
-        
-        throw new RuntimeError(expr.name, "Only instances have properties.");
+
+        if(MulMetrics.ENABLED)
+            MulMetrics.PROPERTY_MISSES.increment();
+
+        int index = instance.shape.indexOf(expr.name._lexeme);
+        if(index >= 0){
+            expr.cache.add(instance.shape, index, null);
+            return instance.getField(index);
+        }
+
+        //methods aren't cached, get() binds them
+        return instance.get(expr.name);
+    }
+
+    @Override
+    public Object visitIndexExpr(Expr.Index expr){
+        Object array = evaluate(expr.object);
+        int index = index(expr.bracket, array, expr.index);
+        return ((MulArray)array).get(index);
+    }
+
+    @Override
+    public Object visitIndexSetExpr(Expr.IndexSet expr){
+        Object array = evaluate(expr.object);
+        int index = index(expr.bracket, array, expr.index);
+        Object value = evaluate(expr.value);
+        ((MulArray)array).set(index, value);
+        return value;
+    }
+
+    private static MulArray array(Token bracket, Object object){
+        if(!(object instanceof MulArray))
+            throw new RuntimeError(bracket, "Only arrays can be indexed.");
+        return (MulArray)object;
+    }
+
+    //evaluated as a number so a counter in an unboxed slot isn't boxed to index with it.
+    //like the VM, the array is only checked once the index has been evaluated too
+    private int index(Token bracket, Object object, Expr index){
+        double position;
+        try{
+            position = evaluateNumber(index);
+        }catch(NotANumber result){
+            throw new RuntimeError(bracket, array(bracket, object).checkIndex(result.value));
+        }
+
+        String message = array(bracket, object).checkIndex(position);
+        if(message != null)
+            throw new RuntimeError(bracket, message);
+        return (int)position;
     }
 
     @Override
@@ -205,41 +469,104 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
         }
 
         Object value = evaluate(expr.value);
-        ((MulInstance) object).set(expr.name, value);
+        MulInstance instance = (MulInstance)object;
+        if(expr.cache == null)
+            expr.cache = new InlineCache();
+
+        Shape shape = instance.shape;
+        int entry = expr.cache.find(shape);
+        if(entry >= 0){
+            if(MulMetrics.ENABLED)
+                MulMetrics.PROPERTY_HITS.increment();
+
+            Shape transition = expr.cache.transition(entry);
+            if(transition == null){
+                instance.setField(expr.cache.index(entry), value);
+            }else{
+                instance.addField(transition, value);
+            }
+            return value;
+        }
+
+        if(MulMetrics.ENABLED)
+            MulMetrics.PROPERTY_MISSES.increment();
+
+        int index = shape.indexOf(expr.name._lexeme);
+        if(index >= 0){
+            instance.setField(index, value);
+            expr.cache.add(shape, index, null);
+        }else{
+            Shape next = shape.withField(expr.name._lexeme);
+            instance.addField(next, value);
+            expr.cache.add(shape, shape.fieldCount(), next);
+        }
         
         return value;
     }
 
     @Override
     public Object visitThisExpr(Expr.This expr){
-        return lookUpVariable(expr.keyword, expr);
+        return lookUpVariable(expr.keyword, expr.depth, expr.slot);
     }
 
     @Override
     public Object visitAssignExpr(Expr.Assign expr){
-        Object value = evaluate(expr.value);
-        
-        Integer distance = locals.get(expr);
-        if(distance != null){
-            environment.assignAt(distance, expr.name, value);
-        }else{
-            globals.assign(expr.name, value);
+        if(expr.depth != Expr.GLOBAL){
+            Environment frame = environment.ancestor(expr.depth);
+            storeLocal(frame, expr.slot, expr.value);
+            return frame.get(expr.slot);
         }
 
+        Object value = evaluate(expr.value);
+        globals.assign(expr.name, expr.slot, value);
+
         return value;
     }
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr){
-        return lookUpVariable(expr.name, expr);
+        return lookUpVariable(expr.name, expr.depth, expr.slot);
     }
 
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt){
-        evaluate(stmt.expression);
+    public Object visitExpressionStmt(Stmt.Expression stmt){
+        evaluateForEffect(stmt.expression);
         return null;
     }
 
+    //evaluates an expression whose value isn't needed
+    private void evaluateForEffect(Expr expression){
+        //an assignment used as a statement doesn't need its value boxed
+        if(expression instanceof Expr.Assign){
+            Expr.Assign assign = (Expr.Assign)expression;
+            if(assign.depth != Expr.GLOBAL){
+                storeLocal(environment.ancestor(assign.depth), assign.slot, assign.value);
+                return;
+            }
+        }
+
+        //so doesn't a number stored in an array
+        if(expression instanceof Expr.IndexSet){
+            Expr.IndexSet set = (Expr.IndexSet)expression;
+            Object object = evaluate(set.object);
+            int index = index(set.bracket, object, set.index);
+            MulArray array = (MulArray)object;
+            if(isNumeric(set.value)){
+                try{
+                    array.setNumber(index, evaluateNumber(set.value));
+                }catch(NotANumber result){
+                    array.set(index, result.value);
+                }
+                return;
+            }
+
+            array.set(index, evaluate(set.value));
+            return;
+        }
+
+        evaluate(expression);
+    }
+
     @Override
     public Object visitLiteralExpr(Expr.Literal expr){
         return expr.value;
@@ -252,22 +579,180 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
     @Override
     public Object visitCallExpr(Expr.Call expr){
-        Object callee = evaluate(expr.callee);
+        Object callee;
+        if(expr.callee instanceof Expr.Get){
+            Expr.Get get = (Expr.Get)expr.callee;
+            Object object = evaluate(get.object);
+
+            MulFunction method = cachedMethod(expr, object, get.name);
+            if(method != null)
+                return invokeMethod(expr, method, (MulInstance)object);
+
+            callee = getProperty(get, object);
+        }else if(expr.callee instanceof Expr.Super){
+            Expr.Super superExpr = (Expr.Super)expr.callee;
+            MulFunction method = superMethod(superExpr);
+            return invokeMethod(expr, method, (MulInstance)environment.getAt(superExpr.thisDepth, 0));
+        }else{
+            callee = evaluate(expr.callee);
+        }
 
-        List<Object> arguments = new ArrayList<>();
-        for(Expr argument: expr.arguments){
-            arguments.add(evaluate(argument));
+        return call(expr, callee);
+    }
+
+    //a Mul function called in tail position isn't called here: it's handed back as the completion
+    //of the return statement and MulFunction.run() calls it once the caller's frame is gone
+    private Object tailCall(Expr.Call expr){
+        MulFunction function;
+        MulInstance receiver;
+        if(expr.callee instanceof Expr.Get){
+            Expr.Get get = (Expr.Get)expr.callee;
+            Object object = evaluate(get.object);
+
+            function = cachedMethod(expr, object, get.name);
+            if(function == null)
+                return call(expr, getProperty(get, object));
+            receiver = (MulInstance)object;
+        }else if(expr.callee instanceof Expr.Super){
+            Expr.Super superExpr = (Expr.Super)expr.callee;
+            function = superMethod(superExpr);
+            receiver = (MulInstance)environment.getAt(superExpr.thisDepth, 0);
+        }else{
+            Object callee = evaluate(expr.callee);
+            if(!(callee instanceof MulFunction))
+                return call(expr, callee);
+
+            function = (MulFunction)callee;
+            receiver = function.receiver();
+        }
+
+        Object[] arguments = evaluateArguments(expr);
+        checkArity(expr, function);
+        if(MulMetrics.ENABLED)
+            MulMetrics.FUNCTION_CALLS.increment();
+        return function.tailCall(this, receiver, arguments);
+    }
+
+    private Object call(Expr.Call expr, Object callee){
+        //arguments are evaluated before the callee is checked
+        List<Expr> arguments = expr.arguments;
+        try{
+            switch(arguments.size()){
+                case 0:
+                    return callable(expr, callee).call0(this);
+                case 1: {
+                    Object a = evaluate(arguments.get(0));
+                    return callable(expr, callee).call1(this, a);
+                }
+                case 2: {
+                    Object a = evaluate(arguments.get(0));
+                    Object b = evaluate(arguments.get(1));
+                    return callable(expr, callee).call2(this, a, b);
+                }
+                case 3: {
+                    Object a = evaluate(arguments.get(0));
+                    Object b = evaluate(arguments.get(1));
+                    Object c = evaluate(arguments.get(2));
+                    return callable(expr, callee).call3(this, a, b, c);
+                }
+                default: {
+                    Object[] values = evaluateArguments(expr);
+                    return callable(expr, callee).call(this, values);
+                }
+            }
+        }catch(NativeError error){
+            throw new RuntimeError(expr.paren, error.getMessage());
         }
+    }
 
+    private MulCallable callable(Expr.Call expr, Object callee){
         if(!(callee instanceof MulCallable))
             throw new RuntimeError(expr.paren, "Can only call functions and classes!");
 
         MulCallable function = (MulCallable) callee;
+        checkArity(expr, function);
+        if(MulMetrics.ENABLED)
+            MulMetrics.call(function);
+        return function;
+    }
 
-        if(arguments.size() != function.arity())
-            throw new RuntimeError(expr.paren, "Expected " + function.arity() + " got " + arguments.size());
+    private void checkArity(Expr.Call expr, MulCallable function){
+        int arity = function.arity();
+        if(expr.arguments.size() != arity)
+            throw new RuntimeError(expr.paren, "Expected " + arity + " got " + expr.arguments.size());
+    }
 
-        return function.call(this, arguments);
+    private Object[] evaluateArguments(Expr.Call expr){
+        Object[] values = new Object[expr.arguments.size()];
+        for(int i = 0; i < values.length; ++i){
+            values[i] = evaluate(expr.arguments.get(i));
+        }
+        return values;
+    }
+
+    //calls a method on the receiver without allocating a bound method for it
+    private Object invokeMethod(Expr.Call expr, MulFunction method, MulInstance receiver){
+        if(MulMetrics.ENABLED)
+            MulMetrics.FUNCTION_CALLS.increment();
+
+        List<Expr> arguments = expr.arguments;
+        switch(arguments.size()){
+            case 0:
+                checkArity(expr, method);
+                return method.invoke0(this, receiver);
+            case 1: {
+                Object a = evaluate(arguments.get(0));
+                checkArity(expr, method);
+                return method.invoke1(this, receiver, a);
+            }
+            case 2: {
+                Object a = evaluate(arguments.get(0));
+                Object b = evaluate(arguments.get(1));
+                checkArity(expr, method);
+                return method.invoke2(this, receiver, a, b);
+            }
+            case 3: {
+                Object a = evaluate(arguments.get(0));
+                Object b = evaluate(arguments.get(1));
+                Object c = evaluate(arguments.get(2));
+                checkArity(expr, method);
+                return method.invoke3(this, receiver, a, b, c);
+            }
+            default: {
+                Object[] values = evaluateArguments(expr);
+                checkArity(expr, method);
+                return method.invoke(this, receiver, values);
+            }
+        }
+    }
+
+    //the method obj.name(...) calls, or null when it isn't a method of an
+    //instance (a field holding a callable shadows methods of the same name)
+    private MulFunction cachedMethod(Expr.Call expr, Object object, Token name){
+        if(!(object instanceof MulInstance))
+            return null;
+
+        MulInstance instance = (MulInstance)object;
+        if(expr.cache == null)
+            expr.cache = new InlineCache();
+
+        int entry = expr.cache.find(instance.shape);
+        if(entry >= 0){
+            if(MulMetrics.ENABLED)
+                MulMetrics.PROPERTY_HITS.increment();
+            return expr.cache.method(entry);
+        }
+
+        if(MulMetrics.ENABLED)
+            MulMetrics.PROPERTY_MISSES.increment();
+
+        if(instance.shape.indexOf(name._lexeme) >= 0)
+            return null;
+
+        MulFunction method = instance.klas.findMethod(name._lexeme);
+        if(method != null)
+            expr.cache.add(instance.shape, method);
+        return method;
     }
 
     @Override
@@ -288,12 +773,12 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr){
+        if(expr.operator._type == MINUS)
+            return -negatable(expr);
+
         Object right = evaluate(expr.right);
         
         switch(expr.operator._type){
-            case MINUS:
-                checkNumberOperand(expr.operator, right);
-                return -(double)right;
             case BANG:
                 return !isTruthy(right);
         }
@@ -314,45 +799,218 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr){
+        if(!expr.generic){
+            try{
+                if(isArithmetic(expr.operator._type))
+                    return arithmetic(expr);
+
+                if(isComparison(expr.operator._type))
+                    return comparison(expr);
+
+            }catch(NotANumber result){
+                return result.value;
+            }
+        }
+
         Object right = evaluate(expr.right);
         Object left = evaluate(expr.left);
 
+        return binary(expr.operator, left, right);
+    }
+
+    //------------------------------------------------------------------------------UNBOXED NUMBERS:
+
+    //evaluates an expression expected to produce a number without boxing
+    //intermediate results, throws NotANumber carrying the value otherwise
+    private double evaluateNumber(Expr expr){
+        if(expr instanceof Expr.Variable){
+            Expr.Variable variable = (Expr.Variable)expr;
+            if(variable.depth == Expr.GLOBAL)
+                return number(globals.get(variable.name, variable.slot));
+
+            Environment frame = environment.ancestor(variable.depth);
+            if(frame.isUnboxed(variable.slot))
+                return frame.getNumber(variable.slot);
+
+            return number(frame.get(variable.slot));
+        }
+
+        if(expr instanceof Expr.Literal)
+            return number(((Expr.Literal)expr).value);
+
+        if(expr instanceof Expr.Binary){
+            Expr.Binary binary = (Expr.Binary)expr;
+            if(!binary.generic && isArithmetic(binary.operator._type))
+                return arithmetic(binary);
+        }
+
+        if(expr instanceof Expr.Unary){
+            Expr.Unary unary = (Expr.Unary)expr;
+            if(unary.operator._type == MINUS)
+                return -negatable(unary);
+        }
+
+        if(expr instanceof Expr.Grouping)
+            return evaluateNumber(((Expr.Grouping)expr).expression);
+
+        if(expr instanceof Expr.Index){
+            Expr.Index index = (Expr.Index)expr;
+            Object object = evaluate(index.object);
+            int position = index(index.bracket, object, index.index);
+            MulArray array = (MulArray)object;
+            if(array.holdsNumbers())
+                return array.getNumber(position);
+            return number(array.get(position));
+        }
+
+        return number(evaluate(expr));
+    }
+
+    //a binary expression observed to work on numbers, the first time an operand
+    //isn't one the node falls back to the generic path for good
+    private double arithmetic(Expr.Binary expr){
+        double right;
+        try{
+            right = evaluateNumber(expr.right);
+        }catch(NotANumber operand){
+            expr.generic = true;
+            return number(binary(expr.operator, evaluate(expr.left), operand.value));
+        }
+
+        double left;
+        try{
+            left = evaluateNumber(expr.left);
+        }catch(NotANumber operand){
+            expr.generic = true;
+            return number(binary(expr.operator, operand.value, right));
+        }
+
+        switch(expr.operator._type){
+            case PLUS:  return left + right;
+            case MINUS: return left - right;
+            case SLASH: return left / right;
+            default:    return left * right;
+        }
+    }
+
+    private boolean comparison(Expr.Binary expr){
+        double right;
+        try{
+            right = evaluateNumber(expr.right);
+        }catch(NotANumber operand){
+            expr.generic = true;
+            return (boolean)binary(expr.operator, evaluate(expr.left), operand.value);
+        }
+
+        double left;
+        try{
+            left = evaluateNumber(expr.left);
+        }catch(NotANumber operand){
+            expr.generic = true;
+            return (boolean)binary(expr.operator, operand.value, right);
+        }
+
         switch(expr.operator._type){
+            case GREATER:       return left > right;
+            case GREATER_EQUAL: return left >= right;
+            case LESSER:        return left < right;
+            default:            return left <= right;
+        }
+    }
+
+    //operand of a unary minus, reports the runtime error if it isn't a number
+    private double negatable(Expr.Unary expr){
+        try{
+            return evaluateNumber(expr.right);
+        }catch(NotANumber operand){
+            checkNumberOperand(expr.operator, operand.value);
+            throw operand;
+        }
+    }
+
+    //evaluates the value into a local slot, numbers computed on the
+    //unboxed path are stored without ever being boxed
+    private void storeLocal(Environment frame, int slot, Expr value){
+        if(isNumeric(value)){
+            try{
+                frame.defineNumber(slot, evaluateNumber(value));
+            }catch(NotANumber result){
+                frame.define(slot, result.value);
+            }
+            return;
+        }
+
+        frame.define(slot, evaluate(value));
+    }
+
+    private static boolean isNumeric(Expr expr){
+        if(expr instanceof Expr.Literal)
+            return ((Expr.Literal)expr).value instanceof Double;
+
+        if(expr instanceof Expr.Binary){
+            Expr.Binary binary = (Expr.Binary)expr;
+            return !binary.generic && isArithmetic(binary.operator._type);
+        }
+
+        return expr instanceof Expr.Unary && ((Expr.Unary)expr).operator._type == MINUS;
+    }
+
+    private static boolean isArithmetic(TokenType type){
+        return type == PLUS || type == MINUS || type == STAR || type == SLASH;
+    }
+
+    private static boolean isComparison(TokenType type){
+        return type == GREATER || type == GREATER_EQUAL || type == LESSER || type == LESSER_EQUAL;
+    }
+
+    private static double number(Object value){
+        if(value instanceof Double)
+            return (double)value;
+
+        throw new NotANumber(value);
+    }
+
+    //------------------------------------------------------------------------------
+
+    //generic binary operator on already evaluated operands
+    //the generic operator, Optimizer uses it to fold constants
+    static Object binary(Token operator, Object left, Object right){
+        switch(operator._type){
             case PLUS:
                 if(right instanceof Double && left instanceof Double)
                     return (double)left + (double)right;
                 
-                if(right instanceof String && left instanceof String)
-                    return (String)left + (String)right;
+                if(isString(right) && isString(left))
+                    return MulString.concat(left, right);
                 
-                throw new RuntimeError(expr.operator, "Operands must be numbers or strings!");
+                throw new RuntimeError(operator, "Operands must be numbers or strings!");
 
             case MINUS:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double)left - (double)right;
 
             case SLASH:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double)left / (double)right;
 
             case STAR:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double)left * (double)right;
             
             case GREATER:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double)left > (double)right;
 
             case GREATER_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double)left >= (double)right;
                 
             case LESSER:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double)left < (double)right;
             
             case LESSER_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double)left <= (double)right;
 
             case BANG_EQUAL:
@@ -366,12 +1024,19 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
         return null;
     }
 
-    private Object lookUpVariable(Token name, Expr expr){
-        Integer distance = locals.get(expr);
-        if(distance != null){
-            return environment.getAt(distance, name._lexeme);
+    private Object lookUpVariable(Token name, int depth, int slot){
+        if(depth != Expr.GLOBAL){
+            return environment.getAt(depth, slot);
         } else {
-            return globals.get(name);
+            return globals.get(name, slot);
+        }
+    }
+
+    private void define(Token name, int slot, Object value){
+        if(environment == null){
+            globals.define(name._lexeme, value);
+        }else{
+            environment.define(slot, value);
         }
     }
 
@@ -382,24 +1047,32 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
         throw new RuntimeError(operator, "operand must be a number!");
     }
 
-    private void checkNumberOperands(Token operator, Object operand_left, Object operand_right){
+    private static void checkNumberOperands(Token operator, Object operand_left, Object operand_right){
         if(operand_left instanceof Double && operand_right instanceof Double)
             return;
 
         throw new RuntimeError(operator, "operand must be a number!");
     }
 
-    private boolean isEqual(Object left, Object right){
+    static boolean isEqual(Object left, Object right){
         if(left == null && right == null)
             return true;
         
         //check if left is null before calling equals on left to avoid error
         if(left == null)
             return false;
+
+        //String.equals() doesn't know about MulStrings
+        if(right instanceof MulString)
+            return right.equals(left);
         return left.equals(right);
     }
 
-    private boolean isTruthy(Object object){
+    private static boolean isString(Object object){
+        return object instanceof String || object instanceof MulString;
+    }
+
+    static boolean isTruthy(Object object){
         //if null return false since only null and false are false
         if(object == null) 
             return false;
@@ -0,0 +1,526 @@
+package mul;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+//translates the body of a hot Mul function into a JVM class so HotSpot
+//can compile it like any other java code
+//
+//only a numeric subset is supported: parameters and locals holding numbers,
+//arithmetic, comparisons, logical operators, if/while/blocks and return.
+//anything else (calls, globals, captured variables, strings, objects, print)
+//makes the whole function stay on the tree-walker
+class JitCompiler implements Expr.Visitor<JitCompiler.Type>, Stmt.Visitor<Void>{
+    static final boolean ENABLED = !"false".equals(System.getProperty("mul.jit"));
+    //calls after which a function is compiled
+    static final int THRESHOLD = Integer.getInteger("mul.jit.threshold", 100);
+
+    private static final String NAME = "mul/JitFunction";
+    private static final String INTERFACE = "mul/CompiledFunction";
+    private static final String DOUBLE = "java/lang/Double";
+    private static final String BOOLEAN = "java/lang/Boolean";
+
+    //static type of an expression in the compiled subset
+    enum Type{
+        NUM,
+        BOOL
+    };
+
+    private static class Unsupported extends RuntimeException{
+        Unsupported(){
+            super(null, null, false, false);
+        }
+    }
+
+    private final ClassWriter writer = new ClassWriter(NAME, "java/lang/Object", INTERFACE);
+    private final ClassWriter.Code code;
+    //java local slot of every visible Mul variable, slot 0 is 'this' followed by
+    //the arguments, or by the argument array for more than three parameters
+    private final Deque<Map<String, Integer>> scopes = new ArrayDeque<>();
+    private final boolean argumentArray;
+    private int nextLocal;
+
+    private JitCompiler(int arity){
+        argumentArray = arity > 3;
+        nextLocal = argumentArray ? 2 : 1 + arity;
+        code = new ClassWriter.Code(nextLocal);
+    }
+
+    //returns null if the function uses anything outside the supported subset
+    static CompiledFunction compile(Stmt.Function function){
+        try{
+            JitCompiler compiler = new JitCompiler(function.params.size());
+            byte[] bytes = compiler.function(function);
+
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            return (CompiledFunction)lookup.lookupClass().getDeclaredConstructor().newInstance();
+
+        }catch(Unsupported unsupported){
+            return null;
+        }catch(ReflectiveOperationException | IllegalStateException | LinkageError error){
+            //a bug in the generated code must never take the program down
+            return null;
+        }
+    }
+
+    private byte[] function(Stmt.Function function){
+        ClassWriter.Code constructor = new ClassWriter.Code(1);
+        constructor.op1(ClassWriter.ALOAD, 0, 1);
+        constructor.op2(ClassWriter.INVOKESPECIAL, writer.methodRef("java/lang/Object", "<init>", "()V"), -1);
+        constructor.op(ClassWriter.RETURN, 0);
+        writer.addMethod(ClassWriter.ACC_PUBLIC, "<init>", "()V", constructor);
+
+        //every argument must be a number, otherwise let the caller deoptimize
+        int paramCount = function.params.size();
+        int[] deopts = new int[paramCount];
+        for(int i = 0; i < paramCount; ++i){
+            loadArgument(i);
+            code.op2(ClassWriter.INSTANCEOF, writer.classRef(DOUBLE), 0);
+            deopts[i] = code.jump(ClassWriter.IFEQ, -1);
+        }
+
+        scopes.push(new HashMap<>());
+        for(int i = 0; i < paramCount; ++i){
+            loadArgument(i);
+            code.op2(ClassWriter.CHECKCAST, writer.classRef(DOUBLE), 0);
+            code.op2(ClassWriter.INVOKEVIRTUAL, writer.methodRef(DOUBLE, "doubleValue", "()D"), 1);
+            storeLocal(declare(function.params.get(i)._lexeme));
+        }
+
+        for(Stmt statement: function.body){
+            compile(statement);
+        }
+        code.op(ClassWriter.ACONST_NULL, 1);
+        code.op(ClassWriter.ARETURN, -1);
+
+        for(int deopt: deopts){
+            code.patch(deopt);
+        }
+        code.op2(ClassWriter.GETSTATIC, writer.fieldRef(INTERFACE, "DEOPT", "Ljava/lang/Object;"), 1);
+        code.op(ClassWriter.ARETURN, -1);
+
+        code.maxLocals = nextLocal;
+        if(argumentArray){
+            writer.addMethod(ClassWriter.ACC_PUBLIC, "invoke", "([Ljava/lang/Object;)Ljava/lang/Object;", code);
+        }else{
+            String descriptor = "(" + "Ljava/lang/Object;".repeat(paramCount) + ")Ljava/lang/Object;";
+            writer.addMethod(ClassWriter.ACC_PUBLIC, "invoke" + paramCount, descriptor, code);
+        }
+        return writer.toByteArray();
+    }
+
+    //------------------------------------------------------------------------------STATEMENTS:
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt){
+        scopes.push(new HashMap<>());
+        for(Stmt statement: stmt.statements){
+            compile(statement);
+        }
+        scopes.pop();
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt){
+        discard(compile(stmt.expression));
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt){
+        scopes.push(new HashMap<>());
+        if(stmt.initializer != null)
+            compile(stmt.initializer);
+
+        int start = code.length;
+        int exitJump = -1;
+        if(stmt.condition != null){
+            condition(stmt.condition);
+            exitJump = code.jump(ClassWriter.IFEQ, -1);
+        }
+
+        compile(stmt.body);
+        if(stmt.increment != null)
+            discard(compile(stmt.increment));
+        int loop = code.jump(ClassWriter.GOTO, 0);
+        code.patchTo(loop, start);
+
+        if(exitJump != -1)
+            code.patch(exitJump);
+        scopes.pop();
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt){
+        condition(stmt.condition);
+        int elseJump = code.jump(ClassWriter.IFEQ, -1);
+        compile(stmt.thenBranch);
+
+        if(stmt.elseBranch == null){
+            code.patch(elseJump);
+            return null;
+        }
+
+        int endJump = code.jump(ClassWriter.GOTO, 0);
+        code.patch(elseJump);
+        compile(stmt.elseBranch);
+        code.patch(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt){
+        if(stmt.value == null){
+            code.op(ClassWriter.ACONST_NULL, 1);
+        }else{
+            box(compile(stmt.value));
+        }
+
+        code.op(ClassWriter.ARETURN, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt){
+        //a variable must start out as a number to get a double slot
+        if(stmt.initializer == null)
+            throw new Unsupported();
+
+        expect(compile(stmt.initializer), Type.NUM);
+        storeLocal(declare(stmt.name._lexeme));
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt){
+        int start = code.length;
+        condition(stmt.condition);
+        int exitJump = code.jump(ClassWriter.IFEQ, -1);
+
+        compile(stmt.body);
+        int loop = code.jump(ClassWriter.GOTO, 0);
+        code.patchTo(loop, start);
+
+        code.patch(exitJump);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt){
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt){
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt){
+        throw new Unsupported();
+    }
+
+    //------------------------------------------------------------------------------EXPRESSIONS:
+
+    @Override
+    public Type visitAssignExpr(Expr.Assign expr){
+        int slot = lookUp(expr.name._lexeme);
+        expect(compile(expr.value), Type.NUM);
+
+        code.op(ClassWriter.DUP2, 2);
+        storeLocal(slot);
+        return Type.NUM;
+    }
+
+    @Override
+    public Type visitBinaryExpr(Expr.Binary expr){
+        //the tree-walker evaluates the right operand first
+        Type right = compile(expr.right);
+        Type left = compile(expr.left);
+
+        switch(expr.operator._type){
+            case PLUS:
+                numbers(left, right);
+                code.op(ClassWriter.DADD, -2);
+                return Type.NUM;
+            case STAR:
+                numbers(left, right);
+                code.op(ClassWriter.DMUL, -2);
+                return Type.NUM;
+            case MINUS:
+                numbers(left, right);
+                swapNumbers();
+                code.op(ClassWriter.DSUB, -2);
+                return Type.NUM;
+            case SLASH:
+                numbers(left, right);
+                swapNumbers();
+                code.op(ClassWriter.DDIV, -2);
+                return Type.NUM;
+
+            //dcmpg makes NaN compare false for < and <=, dcmpl for > and >=
+            case LESSER:
+                numbers(left, right);
+                swapNumbers();
+                code.op(ClassWriter.DCMPG, -3);
+                return bool(ClassWriter.IFLT);
+            case LESSER_EQUAL:
+                numbers(left, right);
+                swapNumbers();
+                code.op(ClassWriter.DCMPG, -3);
+                return bool(ClassWriter.IFLE);
+            case GREATER:
+                numbers(left, right);
+                swapNumbers();
+                code.op(ClassWriter.DCMPL, -3);
+                return bool(ClassWriter.IFGT);
+            case GREATER_EQUAL:
+                numbers(left, right);
+                swapNumbers();
+                code.op(ClassWriter.DCMPL, -3);
+                return bool(ClassWriter.IFGE);
+
+            case EQUAL_EQUAL:
+            case BANG_EQUAL:
+                boolean equal = expr.operator._type == TokenType.EQUAL_EQUAL;
+                if(left != right)
+                    throw new Unsupported();
+
+                if(left == Type.BOOL)
+                    return bool(equal ? ClassWriter.IF_ICMPEQ : ClassWriter.IF_ICMPNE, -2);
+
+                //Double.equals semantics: NaN equals itself and 0.0 differs from -0.0
+                code.op2(ClassWriter.INVOKESTATIC, writer.methodRef(DOUBLE, "compare", "(DD)I"), -3);
+                return bool(equal ? ClassWriter.IFEQ : ClassWriter.IFNE);
+        }
+
+        throw new Unsupported();
+    }
+
+    @Override
+    public Type visitGroupingExpr(Expr.Grouping expr){
+        return compile(expr.expression);
+    }
+
+    @Override
+    public Type visitLiteralExpr(Expr.Literal expr){
+        if(expr.value instanceof Double){
+            double value = (double)expr.value;
+            if(Double.doubleToRawLongBits(value) == 0L){
+                code.op(ClassWriter.DCONST_0, 2);
+            }else if(value == 1.0){
+                code.op(ClassWriter.DCONST_1, 2);
+            }else{
+                code.op2(ClassWriter.LDC2_W, writer.doubleConstant(value), 2);
+            }
+            return Type.NUM;
+        }
+
+        if(expr.value instanceof Boolean){
+            code.op((boolean)expr.value ? ClassWriter.ICONST_1 : ClassWriter.ICONST_0, 1);
+            return Type.BOOL;
+        }
+
+        throw new Unsupported();
+    }
+
+    @Override
+    public Type visitLogicalExpr(Expr.Logical expr){
+        expect(compile(expr.left), Type.BOOL);
+
+        //'or' keeps a true left operand, 'and' keeps a false one
+        code.op(ClassWriter.DUP, 1);
+        int end = code.jump(expr.operator._type == TokenType.OR ? ClassWriter.IFNE : ClassWriter.IFEQ, -1);
+        code.op(ClassWriter.POP, -1);
+        expect(compile(expr.right), Type.BOOL);
+        code.patch(end);
+
+        return Type.BOOL;
+    }
+
+    @Override
+    public Type visitTernaryExpr(Expr.Ternary expr){
+        condition(expr.condition);
+        int elseJump = code.jump(ClassWriter.IFEQ, -1);
+        int depth = code.stack();
+
+        Type thenType = compile(expr.thenExpr);
+        int endJump = code.jump(ClassWriter.GOTO, 0);
+
+        code.setStack(depth);
+        code.patch(elseJump);
+        expect(compile(expr.elseExpr), thenType);
+        code.patch(endJump);
+
+        return thenType;
+    }
+
+    @Override
+    public Type visitUnaryExpr(Expr.Unary expr){
+        Type right = compile(expr.right);
+
+        switch(expr.operator._type){
+            case MINUS:
+                expect(right, Type.NUM);
+                code.op(ClassWriter.DNEG, 0);
+                return Type.NUM;
+            case BANG:
+                expect(right, Type.BOOL);
+                code.op(ClassWriter.ICONST_1, 1);
+                code.op(ClassWriter.IXOR, -1);
+                return Type.BOOL;
+        }
+
+        throw new Unsupported();
+    }
+
+    @Override
+    public Type visitVariableExpr(Expr.Variable expr){
+        code.op1(ClassWriter.DLOAD, lookUp(expr.name._lexeme), 2);
+        return Type.NUM;
+    }
+
+    @Override
+    public Type visitCallExpr(Expr.Call expr){
+        throw new Unsupported();
+    }
+
+    @Override
+    public Type visitGetExpr(Expr.Get expr){
+        throw new Unsupported();
+    }
+
+    @Override
+    public Type visitSetExpr(Expr.Set expr){
+        throw new Unsupported();
+    }
+
+    @Override
+    public Type visitIndexExpr(Expr.Index expr){
+        throw new Unsupported();
+    }
+
+    @Override
+    public Type visitIndexSetExpr(Expr.IndexSet expr){
+        throw new Unsupported();
+    }
+
+    @Override
+    public Type visitSuperExpr(Expr.Super expr){
+        throw new Unsupported();
+    }
+
+    @Override
+    public Type visitThisExpr(Expr.This expr){
+        throw new Unsupported();
+    }
+
+    //------------------------------------------------------------------------------HELPERS:
+
+    private void compile(Stmt stmt){
+        stmt.accept(this);
+    }
+
+    private Type compile(Expr expr){
+        return expr.accept(this);
+    }
+
+    //leaves 1 or 0 on the stack
+    private void condition(Expr expr){
+        expect(compile(expr), Type.BOOL);
+    }
+
+    //turns the result of a comparison branch into 1 or 0
+    private Type bool(int branch){
+        return bool(branch, -1);
+    }
+
+    private Type bool(int branch, int stackChange){
+        int depth = code.stack() + stackChange;
+        int isTrue = code.jump(branch, stackChange);
+        code.op(ClassWriter.ICONST_0, 1);
+        int end = code.jump(ClassWriter.GOTO, 0);
+
+        code.setStack(depth);
+        code.patch(isTrue);
+        code.op(ClassWriter.ICONST_1, 1);
+        code.patch(end);
+        return Type.BOOL;
+    }
+
+    //operands are evaluated right to left, restore left, right order
+    private void swapNumbers(){
+        code.op(ClassWriter.DUP2_X2, 2);
+        code.op(ClassWriter.POP2, -2);
+    }
+
+    private void numbers(Type left, Type right){
+        expect(left, Type.NUM);
+        expect(right, Type.NUM);
+    }
+
+    private void expect(Type actual, Type expected){
+        if(actual != expected)
+            throw new Unsupported();
+    }
+
+    private void discard(Type type){
+        code.op(type == Type.NUM ? ClassWriter.POP2 : ClassWriter.POP, type == Type.NUM ? -2 : -1);
+    }
+
+    private void box(Type type){
+        if(type == Type.NUM){
+            code.op2(ClassWriter.INVOKESTATIC, writer.methodRef(DOUBLE, "valueOf", "(D)Ljava/lang/Double;"), -1);
+        }else{
+            code.op2(ClassWriter.INVOKESTATIC, writer.methodRef(BOOLEAN, "valueOf", "(Z)Ljava/lang/Boolean;"), 0);
+        }
+    }
+
+    private void loadArgument(int index){
+        if(!argumentArray){
+            code.op1(ClassWriter.ALOAD, 1 + index, 1);
+            return;
+        }
+
+        code.op1(ClassWriter.ALOAD, 1, 1);
+        if(index <= 5){
+            code.op(ClassWriter.ICONST_0 + index, 1);
+        }else if(index <= Byte.MAX_VALUE){
+            code.op1(ClassWriter.BIPUSH, index, 1);
+        }else{
+            code.op2(ClassWriter.SIPUSH, index, 1);
+        }
+        code.op(ClassWriter.AALOAD, -1);
+    }
+
+    private int declare(String name){
+        //dload/dstore only take a one byte index
+        if(nextLocal > 254)
+            throw new Unsupported();
+
+        int slot = nextLocal;
+        nextLocal += 2;
+        scopes.peek().put(name, slot);
+        return slot;
+    }
+
+    //variables from outside the function aren't supported
+    private int lookUp(String name){
+        for(Map<String, Integer> scope: scopes){
+            Integer slot = scope.get(name);
+            if(slot != null)
+                return slot;
+        }
+
+        throw new Unsupported();
+    }
+
+    private void storeLocal(int slot){
+        code.op1(ClassWriter.DSTORE, slot, -2);
+    }
+}
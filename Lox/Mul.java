@@ -3,32 +3,125 @@ package mul;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 
 public class Mul {
     //variables
     private static final Interpreter interpreter = new Interpreter();
+    //only created when running with --engine=vm
+    private static VM vm = null;
+    //where --profile writes the sampled stacks, null when not profiling
+    private static Path profile = null;
     static boolean hadError = false;
     static boolean hadRunTimeError = false;
+    //set on threads that parse part of a script, their errors are
+    //collected here and reported by the thread that started the parse
+    private static final ThreadLocal<List<DeferredError>> deferredErrors = new ThreadLocal<>();
+    //every Mul call nests a dozen or so java frames, the default
+    //thread stack runs out after a few hundred levels of recursion
+    private static final long STACK_SIZE = 256L * 1024 * 1024;
 
     //methods
-    public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jmul [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
-        } else {
-            runPrompt();
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String script = null;
+        for (String arg : args) {
+            if (arg.equals("--engine=vm")) {
+                vm = new VM();
+            } else if (arg.equals("--engine=tree")) {
+                vm = null;
+            } else if (arg.equals("--profile")) {
+                profile = Paths.get("profile.folded");
+            } else if (arg.startsWith("--profile=")) {
+                profile = Paths.get(arg.substring("--profile=".length()));
+            } else if (arg.startsWith("--output=")) {
+                Output.toFile(Paths.get(arg.substring("--output=".length())));
+            } else if (arg.startsWith("--") || script != null) {
+                usage();
+            } else {
+                script = arg;
+            }
+        }
+
+        //the profiler follows the calls of the tree-walker over a whole script
+        if (profile != null && (vm != null || script == null))
+            usage();
+
+        MulMetrics.start();
+
+        String path = script;
+        Thread main = new Thread(null, () -> {
+            try {
+                if (path != null) {
+                    runFile(path);
+                } else {
+                    runPrompt();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                Output.flush();
+            }
+        }, "mul", STACK_SIZE);
+        //the JVM would exit 0 once the thread is gone, report what it didn't catch
+        //the way an uncaught exception on the main thread is reported
+        Throwable[] failure = new Throwable[1];
+        main.setUncaughtExceptionHandler((thread, e) -> failure[0] = e);
+        main.start();
+        main.join();
+
+        if (failure[0] != null) {
+            failure[0].printStackTrace();
+            System.exit(1);
         }
     }
 
+    private static void usage() {
+        System.out.println("Usage: jmul [--engine=tree|vm] [--output=file] [script]");
+        System.out.println("       jmul [--engine=tree] [--output=file] --profile[=file] script");
+        System.exit(64);
+    }
+
     private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        Path file = Paths.get(path);
+        AstCache cache = null;
+        String key = null;
+        List<Stmt> statements = null;
+        if (AstCache.ENABLED) {
+            cache = new AstCache();
+            key = AstCache.key(file);
+            statements = cache.load(key);
+        }
+
+        if (statements == null) {
+            //the scanner reads the file in chunks instead of loading all of it
+            boolean large = Files.size(file) >= ParallelParser.THRESHOLD;
+            try (Reader reader = Files.newBufferedReader(file, Charset.defaultCharset())) {
+                statements = parse(new Scanner(reader), large);
+            }
+
+            if (statements != null && cache != null)
+                cache.store(key, statements);
+        }
+
+        if (statements != null) {
+            if (profile != null) {
+                interpreter.profiler = new Profiler();
+                execute(statements);
+                Output.flush();
+                interpreter.profiler.stop(profile);
+            } else {
+                execute(statements);
+            }
+        }
+
+        Output.flush();
 
         // Indicate an error in the exit code.
         if (hadError) System.exit(65);
@@ -39,40 +132,62 @@ public class Mul {
         InputStreamReader input = new InputStreamReader(System.in);
         BufferedReader reader = new BufferedReader(input);
         for (;;) {
-            System.out.print("> ");
+            Output.print("> ");
+            Output.flush();
             String line = reader.readLine();
             if (line == null) 
                 break;
                 
-            run(line);
+            List<Stmt> statements = parse(new Scanner(line), false);
+            if (statements != null)
+                execute(statements);
             hadError = false;
         }
     }
 
-    private static void run(String source) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-
-        /*for(Token token: tokens)
-            System.out.println(token._type);
-        */
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
+    //parses and resolves, returns null if the program has errors
+    private static List<Stmt> parse(Scanner scanner, boolean large) {
+        List<Stmt> statements;
+        if (large) {
+            statements = new ParallelParser(scanner).parse();
+        } else {
+            statements = new Parser(scanner).parse();
+        }
         
         if(hadError)
-            return;
+            return null;
 
         Resolver resolver = new Resolver(interpreter);
         resolver.resolve(statements);
 
         if(hadError)
+            return null;
+
+        if(Optimizer.ENABLED)
+            new Optimizer().optimize(statements);
+
+        return statements;
+    }
+
+    private static void execute(List<Stmt> statements) {
+        if(vm != null){
+            VmFunction script = new Compiler(vm).compile(statements);
+            if(script != null)
+                vm.interpret(script);
             return;
+        }
 
         interpreter.interpret(statements);
 
     }
 
+    //both engines report through here, so only errors the user sees are counted
     static void runtimeError(RuntimeError error){
+        if (MulMetrics.ENABLED)
+            MulMetrics.RUNTIME_ERRORS.increment();
+
+        //what the script printed before the error comes first
+        Output.flush();
         System.err.println(error.getMessage() + "\n[line " + error.token._line + "]");
         hadRunTimeError = true;
     }
@@ -82,7 +197,50 @@ public class Mul {
     }
 
     private static void report(int line, String where, String message) {
-        System.err.println("[line " + line + "] Error" + where + ": " + message);
+        List<DeferredError> deferred = deferredErrors.get();
+        if (deferred != null) {
+            deferred.add(new DeferredError(line, where, message));
+            return;
+        }
+
+        Output.flush();
+        System.err.println(format(line, where, message));
         hadError = true;
     }
+
+    private static String format(int line, String where, String message) {
+        return "[line " + line + "] Error" + where + ": " + message;
+    }
+
+    //an error held back by deferErrors(), formatted when it's reported
+    static final class DeferredError {
+        final int line;
+        private final String where;
+        private final String message;
+
+        private DeferredError(int line, String where, String message) {
+            this.line = line;
+            this.where = where;
+            this.message = message;
+        }
+    }
+
+    //errors reported on this thread are collected in the returned list until stopDeferring()
+    static List<DeferredError> deferErrors() {
+        List<DeferredError> errors = new ArrayList<>();
+        deferredErrors.set(errors);
+        return errors;
+    }
+
+    static void stopDeferring() {
+        deferredErrors.remove();
+    }
+
+    static void reportErrors(List<DeferredError> errors) {
+        Output.flush();
+        for (DeferredError error : errors) {
+            System.err.println(format(error.line, error.where, error.message));
+            hadError = true;
+        }
+    }
 }
\ No newline at end of file
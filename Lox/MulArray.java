@@ -0,0 +1,119 @@
+package mul;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+//an array made by the native array(n), shared by the interpreter and the VM. it
+//starts out as n zeros in a double[] and stays there, unboxed, for as long as
+//only numbers are stored in it. the first time anything else is stored every
+//element is boxed into an Object[] and the array keeps that storage for good
+final class MulArray{
+    //exactly one of them is set
+    private double[] numbers;
+    private Object[] values = null;
+    //the arrays toString() is in the middle of on this thread, an array
+    //that holds itself is printed as [...] the second time around
+    private static final ThreadLocal<Set<MulArray>> printing =
+        ThreadLocal.withInitial(() -> Collections.newSetFromMap(new IdentityHashMap<>()));
+
+    private MulArray(int length){
+        numbers = new double[length];
+    }
+
+    //what the array native does with its argument
+    static MulArray make(Object length){
+        if(!(length instanceof Double) || !isIndex((double)length))
+            throw new NativeError("Array length must be a non-negative integer.");
+        return new MulArray((int)(double)length);
+    }
+
+    //what the len native does with its argument
+    static double length(Object array){
+        if(!(array instanceof MulArray))
+            throw new NativeError("Can only take the length of arrays.");
+        return ((MulArray)array).length();
+    }
+
+    int length(){
+        return numbers != null ? numbers.length : values.length;
+    }
+
+    boolean holdsNumbers(){
+        return numbers != null;
+    }
+
+    //the element at a checked index, numbers only while holdsNumbers()
+    double getNumber(int index){
+        return numbers[index];
+    }
+
+    Object get(int index){
+        if(numbers != null)
+            return numbers[index];
+        return values[index];
+    }
+
+    void setNumber(int index, double value){
+        if(numbers != null){
+            numbers[index] = value;
+        }else{
+            values[index] = value;
+        }
+    }
+
+    void set(int index, Object value){
+        if(numbers != null){
+            if(value instanceof Double){
+                numbers[index] = (double)value;
+                return;
+            }
+
+            values = new Object[numbers.length];
+            for(int i = 0; i < numbers.length; ++i){
+                values[i] = numbers[i];
+            }
+            numbers = null;
+        }
+
+        values[index] = value;
+    }
+
+    //null if the value can index this array, what's wrong with it otherwise
+    String checkIndex(Object index){
+        if(!(index instanceof Double))
+            return "Array index must be a non-negative integer.";
+        return checkIndex((double)index);
+    }
+
+    String checkIndex(double index){
+        if(!isIndex(index))
+            return "Array index must be a non-negative integer.";
+        if(index >= length())
+            return "Array index " + (long)index + " out of bounds for length " + length() + ".";
+        return null;
+    }
+
+    private static boolean isIndex(double number){
+        return number >= 0 && number <= Integer.MAX_VALUE && number == Math.floor(number);
+    }
+
+    @Override
+    public String toString(){
+        Set<MulArray> open = printing.get();
+        if(!open.add(this))
+            return "[...]";
+
+        try{
+            StringBuilder text = new StringBuilder("[");
+            for(int i = 0; i < length(); ++i){
+                if(i > 0)
+                    text.append(", ");
+                text.append(Interpreter.stringify(get(i)));
+            }
+            return text.append(']').toString();
+        }finally{
+            open.remove(this);
+        }
+    }
+}
@@ -1,8 +1,27 @@
 package mul;
 
-import java.util.List;
-
+//calls with up to three arguments go through the fixed arity entry
+//points so the arguments never have to be collected in an array,
+//the interpreter checks arity() before using any of them
 interface MulCallable{
+    Object[] NO_ARGUMENTS = new Object[0];
+
     int arity();
-    Object call(Interpreter interpreter, List<Object> arguments);
+    Object call(Interpreter interpreter, Object[] arguments);
+
+    default Object call0(Interpreter interpreter){
+        return call(interpreter, NO_ARGUMENTS);
+    }
+
+    default Object call1(Interpreter interpreter, Object a){
+        return call(interpreter, new Object[]{a});
+    }
+
+    default Object call2(Interpreter interpreter, Object a, Object b){
+        return call(interpreter, new Object[]{a, b});
+    }
+
+    default Object call3(Interpreter interpreter, Object a, Object b, Object c){
+        return call(interpreter, new Object[]{a, b, c});
+    }
 }
@@ -1,49 +1,80 @@
 package mul;
 
-import java.util.List;
+import java.util.IdentityHashMap;
 import java.util.Map;
 
 class MulClass implements MulCallable {
     final String name;
     final MulClass superclass;
+    //own methods plus every inherited one that isn't overridden
     final Map<String, MulFunction> methods;
+    final MulFunction initializer;
+    private final int arity;
+    //every instance starts out with this shape
+    final Shape rootShape = new Shape();
+    //most fields an instance of the class ended up with so far
+    int fieldHint = 0;
 
     public MulClass(String name, MulClass superclass, Map<String, MulFunction> methods) {
         this.name = name;
         this.superclass = superclass;
-        this.methods = methods;
+
+        //flattening the table once here keeps lookups O(1) however deep the hierarchy is
+        Map<String, MulFunction> table = new IdentityHashMap<>();
+        if(superclass != null)
+            table.putAll(superclass.methods);
+        table.putAll(methods);
+        this.methods = table;
+        this.initializer = table.get("init");
+        this.arity = initializer == null ? 0 : initializer.arity();
     }
 
     public MulFunction findMethod(String name){
-        if(methods.containsKey(name))
-            return methods.get(name);
-
-        if(superclass != null)
-            return superclass.findMethod(name);
-        
-        return null;
+        return methods.get(name);
     }
 
     @Override
     public int arity(){
-        MulFunction initializer = findMethod("init");
-        if(initializer == null)
-            return 0;
+        return arity;
+    }
+
+    //the interpreter checked the arity, so there is an initializer whenever there are arguments
+
+    @Override
+    public Object call0(Interpreter interpreter){
+        MulInstance instance = new MulInstance(this);
+        if(initializer != null)
+            initializer.invoke0(interpreter, instance);
+        return instance;
+    }
 
-        return initializer.arity();
+    @Override
+    public Object call1(Interpreter interpreter, Object a){
+        MulInstance instance = new MulInstance(this);
+        initializer.invoke1(interpreter, instance, a);
+        return instance;
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments){
+    public Object call2(Interpreter interpreter, Object a, Object b){
         MulInstance instance = new MulInstance(this);
+        initializer.invoke2(interpreter, instance, a, b);
+        return instance;
+    }
 
-        MulFunction initializer = findMethod("init");
-        if(initializer != null){
-            initializer.bind(instance).call(interpreter, arguments);
-        }
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c){
+        MulInstance instance = new MulInstance(this);
+        initializer.invoke3(interpreter, instance, a, b, c);
+        return instance;
+    }
 
+    @Override
+    public Object call(Interpreter interpreter, Object[] arguments){
+        MulInstance instance = new MulInstance(this);
+        if(initializer != null)
+            initializer.invoke(interpreter, instance, arguments);
         return instance;
-        
     }
 
     @Override
@@ -1,42 +1,226 @@
 package mul;
 
-import java.util.List;
-
 class MulFunction implements MulCallable{
+    //what a return statement calling a function in tail position completes with,
+    //run() makes the call after the frame of the returning function is gone
+    static final class TailCall{
+        final MulFunction function;
+        final MulInstance receiver;
+        final Object[] arguments;
+
+        TailCall(MulFunction function, MulInstance receiver, Object[] arguments){
+            this.function = function;
+            this.receiver = receiver;
+            this.arguments = arguments;
+        }
+    }
+
     private final Stmt.Function declaration;
     private final Environment closure;
     private final boolean isInit;
+    //methods keep "this" in slot 0 of their frame, parameters follow it
+    private final boolean isMethod;
+    private final int firstParameter;
+    //the instance a bound method was taken from
+    private final MulInstance receiver;
 
     MulFunction(Stmt.Function declaration, Environment closure, boolean isInit) {
+        this(declaration, closure, isInit, false, null);
+    }
+
+    MulFunction(Stmt.Function declaration, Environment closure, boolean isInit, boolean isMethod, MulInstance receiver) {
         this.declaration = declaration;
         this.closure = closure;
         this.isInit = isInit;
+        this.isMethod = isMethod;
+        this.firstParameter = isMethod ? 1 : 0;
+        this.receiver = receiver;
     }
 
+    //only needed when the method escapes as a value, calls
+    //of the form obj.method() go through invoke() directly
     public MulFunction bind(MulInstance instance){
-        Environment environment = new Environment(closure);
-        environment.define("this", instance);
-        return new MulFunction(declaration, environment, isInit);
+        return new MulFunction(declaration, closure, isInit, true, instance);
+    }
+
+    MulInstance receiver(){
+        return receiver;
     }
 
     //binds parameters of function call with it's names in function declaration
     //executes function block
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments){
-        Environment environment = new Environment(closure);
-        for(int i=0; i < declaration.params.size(); i++){
-            environment.define(declaration.params.get(i)._lexeme, arguments.get(i));
+    public Object call(Interpreter interpreter, Object[] arguments){
+        return invoke(interpreter, receiver, arguments);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter){
+        return invoke0(interpreter, receiver);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a){
+        return invoke1(interpreter, receiver, a);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b){
+        return invoke2(interpreter, receiver, a, b);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c){
+        return invoke3(interpreter, receiver, a, b, c);
+    }
+
+    //the invoke methods call the function with the given receiver as "this",
+    //without binding it first, the arguments go straight into the new frame
+
+    Object invoke0(Interpreter interpreter, MulInstance receiver){
+        if(hasCompiledCode(interpreter)){
+            Object result = declaration.compiled.invoke0();
+            if(result != CompiledFunction.DEOPT)
+                return result;
+        }
+
+        return run(interpreter, frame(receiver), receiver);
+    }
+
+    Object invoke1(Interpreter interpreter, MulInstance receiver, Object a){
+        if(hasCompiledCode(interpreter)){
+            Object result = declaration.compiled.invoke1(a);
+            if(result != CompiledFunction.DEOPT)
+                return result;
+        }
+
+        Environment environment = frame(receiver);
+        environment.define(firstParameter, a);
+        return run(interpreter, environment, receiver);
+    }
+
+    Object invoke2(Interpreter interpreter, MulInstance receiver, Object a, Object b){
+        if(hasCompiledCode(interpreter)){
+            Object result = declaration.compiled.invoke2(a, b);
+            if(result != CompiledFunction.DEOPT)
+                return result;
         }
-        
-        try {
-            interpreter.executeBlock(declaration.body, environment);
-        } catch (Return returnValue) {
-            if(isInit) return closure.getAt(0, "this");
-            return returnValue.value;
+
+        Environment environment = frame(receiver);
+        environment.define(firstParameter, a);
+        environment.define(firstParameter + 1, b);
+        return run(interpreter, environment, receiver);
+    }
+
+    Object invoke3(Interpreter interpreter, MulInstance receiver, Object a, Object b, Object c){
+        if(hasCompiledCode(interpreter)){
+            Object result = declaration.compiled.invoke3(a, b, c);
+            if(result != CompiledFunction.DEOPT)
+                return result;
+        }
+
+        Environment environment = frame(receiver);
+        environment.define(firstParameter, a);
+        environment.define(firstParameter + 1, b);
+        environment.define(firstParameter + 2, c);
+        return run(interpreter, environment, receiver);
+    }
+
+    Object invoke(Interpreter interpreter, MulInstance receiver, Object[] arguments){
+        if(hasCompiledCode(interpreter)){
+            Object result = declaration.compiled.invoke(arguments);
+            if(result != CompiledFunction.DEOPT)
+                return result;
+        }
+
+        Environment environment = frame(receiver);
+        for(int i=0; i < arguments.length; i++){
+            environment.define(firstParameter + i, arguments[i]);
+        }
+        return run(interpreter, environment, receiver);
+    }
+
+    //an initializer has to return its instance, it's called right away
+    Object tailCall(Interpreter interpreter, MulInstance receiver, Object[] arguments){
+        if(isInit)
+            return invoke(interpreter, receiver, arguments);
+
+        return new TailCall(this, receiver, arguments);
+    }
+
+    private Environment frame(MulInstance receiver){
+        Environment environment = new Environment(closure, declaration.slotCount);
+        if(isMethod)
+            environment.define(0, receiver);
+        return environment;
+    }
+
+    private Object run(Interpreter interpreter, Environment environment, MulInstance receiver){
+        Object completion = execute(interpreter, environment);
+
+        //tail calls are made one after the other from here, so they don't grow the java stack
+        while(completion instanceof TailCall){
+            TailCall call = (TailCall)completion;
+            completion = call.function.enter(interpreter, call.receiver, call.arguments);
+        }
+
+        if(isInit) return receiver;
+        if(completion == Interpreter.RETURN_NIL) return null;
+        return completion;
+    }
+
+    //returns the completion of the body
+    private Object execute(Interpreter interpreter, Environment environment){
+        //a call that fails with a runtime error ends the program, so it's not popped then
+        Profiler profiler = interpreter.profiler;
+        if(profiler != null)
+            profiler.enter(declaration);
+
+        Object completion = interpreter.executeBlock(declaration.body, environment);
+
+        if(profiler != null)
+            profiler.exit();
+        return completion;
+    }
+
+    //makes a tail call, returns the result of the compiled code or the completion of the body
+    private Object enter(Interpreter interpreter, MulInstance receiver, Object[] arguments){
+        if(hasCompiledCode(interpreter)){
+            Object result;
+            switch(arguments.length){
+                case 0:  result = declaration.compiled.invoke0(); break;
+                case 1:  result = declaration.compiled.invoke1(arguments[0]); break;
+                case 2:  result = declaration.compiled.invoke2(arguments[0], arguments[1]); break;
+                case 3:  result = declaration.compiled.invoke3(arguments[0], arguments[1], arguments[2]); break;
+                default: result = declaration.compiled.invoke(arguments); break;
+            }
+            if(result != CompiledFunction.DEOPT)
+                return result;
+        }
+
+        Environment environment = frame(receiver);
+        for(int i = 0; i < arguments.length; i++){
+            environment.define(firstParameter + i, arguments[i]);
+        }
+        return execute(interpreter, environment);
+    }
+
+    //counts the call and compiles the function to JVM bytecode once it got hot,
+    //true if there is compiled code to try before the tree-walker. compiled code
+    //doesn't maintain the profiler's stack, so nothing is compiled while profiling
+    private boolean hasCompiledCode(Interpreter interpreter){
+        if(isInit || !JitCompiler.ENABLED || interpreter.profiler != null)
+            return false;
+
+        if(declaration.compiled == null){
+            if(declaration.jitDone || ++declaration.calls < JitCompiler.THRESHOLD)
+                return false;
+
+            declaration.jitDone = true;
+            declaration.compiled = JitCompiler.compile(declaration);
         }
 
-        if(isInit) return closure.getAt(0, "this");
-        return null;
+        return declaration.compiled != null;
     }
 
     @Override
@@ -1,19 +1,26 @@
 package mul;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 class MulInstance {
-    final private MulClass klas;
-    private final Map<String, Object> fields = new HashMap<>();
+    final MulClass klas;
+    //fields are laid out as described by the shape
+    Shape shape;
+    private Object[] fields;
 
     public MulInstance(MulClass klas) {
+        if(MulMetrics.ENABLED)
+            MulMetrics.INSTANCES.increment();
+
         this.klas = klas;
+        this.shape = klas.rootShape;
+        this.fields = new Object[klas.fieldHint];
     }
 
     Object get(Token name){
-        if(fields.containsKey(name._lexeme))
-            return fields.get(name._lexeme);
+        int index = shape.indexOf(name._lexeme);
+        if(index >= 0)
+            return fields[index];
 
         MulFunction method = klas.findMethod(name._lexeme);
         if(method != null)
@@ -22,8 +29,26 @@ class MulInstance {
         throw new RuntimeError(name, "Undefined property '" + name._lexeme + "'.");
     }
 
-    void set(Token name, Object value){
-        fields.put(name._lexeme, value);
+    Object getField(int index){
+        return fields[index];
+    }
+
+    void setField(int index, Object value){
+        fields[index] = value;
+    }
+
+    //moves the instance to next, which has one more field than its current shape
+    void addField(Shape next, Object value){
+        int index = shape.fieldCount();
+        if(index == fields.length)
+            fields = Arrays.copyOf(fields, Math.max(4, index * 2));
+
+        fields[index] = value;
+        shape = next;
+
+        //let later instances start out with room for every field
+        if(klas.fieldHint < next.fieldCount())
+            klas.fieldHint = next.fieldCount();
     }
 
     @Override
@@ -32,4 +57,4 @@ class MulInstance {
     }
 
     
-}
\ No newline at end of file
+}
@@ -0,0 +1,123 @@
+package mul;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+//counters of what the interpreter is doing, published as the mul:type=Metrics MXBean.
+//-Dmul.metrics=true turns them on, every increment is guarded by ENABLED so the JIT
+//drops them when it's off. -Dmul.metrics.dump=<seconds> also prints them to
+//standard error at that interval
+class MulMetrics implements MulMetricsMXBean{
+    static final boolean ENABLED = Boolean.getBoolean("mul.metrics");
+    static final long DUMP_INTERVAL = Long.getLong("mul.metrics.dump", 0);
+
+    static final LongAdder STATEMENTS = new LongAdder();
+    static final LongAdder FUNCTION_CALLS = new LongAdder();
+    static final LongAdder CLASS_CALLS = new LongAdder();
+    static final LongAdder NATIVE_CALLS = new LongAdder();
+    static final LongAdder ENVIRONMENTS = new LongAdder();
+    static final LongAdder INSTANCES = new LongAdder();
+    static final LongAdder PROPERTY_HITS = new LongAdder();
+    static final LongAdder PROPERTY_MISSES = new LongAdder();
+    static final LongAdder RUNTIME_ERRORS = new LongAdder();
+    static final LongAdder COUNTED_LOOPS = new LongAdder();
+
+    private MulMetrics(){}
+
+    //registers the MXBean and starts the dump, does nothing unless ENABLED
+    static void start(){
+        if(!ENABLED)
+            return;
+
+        MulMetrics metrics = new MulMetrics();
+        try{
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName("mul:type=Metrics"));
+        }catch(JMException e){
+            System.err.println("Could not register the metrics MXBean: " + e.getMessage());
+        }
+
+        if(DUMP_INTERVAL > 0){
+            ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "mul-metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+            dumper.scheduleAtFixedRate(metrics::dump, DUMP_INTERVAL, DUMP_INTERVAL, TimeUnit.SECONDS);
+        }
+    }
+
+    static void call(MulCallable callee){
+        if(callee instanceof MulFunction){
+            FUNCTION_CALLS.increment();
+        }else if(callee instanceof MulClass){
+            CLASS_CALLS.increment();
+        }else{
+            NATIVE_CALLS.increment();
+        }
+    }
+
+    private void dump(){
+        System.err.println("[metrics] statements=" + getStatementsExecuted()
+            + " calls=" + getFunctionCalls() + "/" + getClassCalls() + "/" + getNativeCalls()
+            + " environments=" + getEnvironmentsAllocated()
+            + " instances=" + getInstancesCreated()
+            + " property-cache=" + getPropertyCacheHits() + "/" + getPropertyCacheMisses()
+            + " errors=" + getRuntimeErrors()
+            + " counted-loops=" + getCountedLoops());
+    }
+
+    @Override
+    public long getStatementsExecuted(){
+        return STATEMENTS.sum();
+    }
+
+    @Override
+    public long getFunctionCalls(){
+        return FUNCTION_CALLS.sum();
+    }
+
+    @Override
+    public long getClassCalls(){
+        return CLASS_CALLS.sum();
+    }
+
+    @Override
+    public long getNativeCalls(){
+        return NATIVE_CALLS.sum();
+    }
+
+    @Override
+    public long getEnvironmentsAllocated(){
+        return ENVIRONMENTS.sum();
+    }
+
+    @Override
+    public long getInstancesCreated(){
+        return INSTANCES.sum();
+    }
+
+    @Override
+    public long getPropertyCacheHits(){
+        return PROPERTY_HITS.sum();
+    }
+
+    @Override
+    public long getPropertyCacheMisses(){
+        return PROPERTY_MISSES.sum();
+    }
+
+    @Override
+    public long getRuntimeErrors(){
+        return RUNTIME_ERRORS.sum();
+    }
+
+    @Override
+    public long getCountedLoops(){
+        return COUNTED_LOOPS.sum();
+    }
+}
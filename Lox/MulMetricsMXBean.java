@@ -0,0 +1,16 @@
+package mul;
+
+//what MulMetrics publishes over JMX as mul:type=Metrics, counted since the start
+public interface MulMetricsMXBean{
+    long getStatementsExecuted();
+    long getFunctionCalls();
+    long getClassCalls();
+    long getNativeCalls();
+    long getEnvironmentsAllocated();
+    long getInstancesCreated();
+    long getPropertyCacheHits();
+    long getPropertyCacheMisses();
+    long getRuntimeErrors();
+    //for loops that ran with their variable unboxed
+    long getCountedLoops();
+}
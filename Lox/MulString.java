@@ -0,0 +1,89 @@
+package mul;
+
+//a long string built by +. it's the first length chars of a buffer that only ever
+//grows, so appending to the string most recently built on a buffer just appends to
+//the buffer and s = s + piece in a loop takes linear time instead of quadratic.
+//appending to an older one copies its chars to a new buffer first. strings shorter
+//than MIN_LENGTH stay java Strings, Mul programs can't tell the two apart
+final class MulString implements CharSequence{
+    static final int MIN_LENGTH = 256;
+
+    private final StringBuilder buffer;
+    private final int length;
+    //the flattened string, made the first time it's needed
+    private String flat = null;
+
+    private MulString(StringBuilder buffer, int length){
+        this.buffer = buffer;
+        this.length = length;
+    }
+
+    //the operands are Strings or MulStrings
+    static Object concat(Object left, Object right){
+        int length = ((CharSequence)left).length() + ((CharSequence)right).length();
+        if(length < MIN_LENGTH)
+            return left.toString() + right.toString();
+
+        StringBuilder buffer;
+        if(left instanceof MulString && ((MulString)left).isLatest()){
+            buffer = ((MulString)left).buffer;
+        }else{
+            buffer = new StringBuilder(length * 2);
+            buffer.append(left.toString());
+        }
+
+        //flattened first, right may share the buffer being appended to
+        buffer.append(right.toString());
+        return new MulString(buffer, length);
+    }
+
+    private boolean isLatest(){
+        return buffer.length() == length;
+    }
+
+    @Override
+    public int length(){
+        return length;
+    }
+
+    @Override
+    public char charAt(int index){
+        if(index >= length)
+            throw new IndexOutOfBoundsException(index);
+        return buffer.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end){
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString(){
+        if(flat == null)
+            flat = buffer.substring(0, length);
+        return flat;
+    }
+
+    //equal to Strings and MulStrings with the same chars, Interpreter.isEqual
+    //takes care of a String on the left since String.equals() won't
+    @Override
+    public boolean equals(Object other){
+        if(other instanceof MulString){
+            MulString string = (MulString)other;
+            if(string.length != length)
+                return false;
+            if(string.buffer == buffer)
+                return true;
+        }else if(!(other instanceof String)){
+            return false;
+        }
+
+        return toString().equals(other.toString());
+    }
+
+    @Override
+    public int hashCode(){
+        return toString().hashCode();
+    }
+}
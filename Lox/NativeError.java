@@ -0,0 +1,10 @@
+package mul;
+
+//thrown by a native function that can't use its arguments. natives don't
+//know where they were called from, the interpreter and the VM turn it into
+//a RuntimeError at the call
+class NativeError extends RuntimeException{
+    NativeError(String message){
+        super(message);
+    }
+}
@@ -0,0 +1,62 @@
+package mul;
+
+//instruction set of the bytecode VM, operands follow the opcode byte:
+//  [u16] = two byte big endian index into the constant pool or globals table
+//  [u8]  = single unsigned byte
+final class OpCode{
+    static final byte CONSTANT      = 0;   //[u16 constant]
+    static final byte NIL           = 1;
+    static final byte TRUE          = 2;
+    static final byte FALSE         = 3;
+    static final byte POP           = 4;
+    static final byte GET_LOCAL     = 5;   //[u8 slot]
+    static final byte SET_LOCAL     = 6;   //[u8 slot]
+    static final byte GET_GLOBAL    = 7;   //[u16 global]
+    static final byte DEFINE_GLOBAL = 8;   //[u16 global]
+    static final byte SET_GLOBAL    = 9;   //[u16 global]
+    static final byte GET_UPVALUE   = 10;  //[u8 upvalue]
+    static final byte SET_UPVALUE   = 11;  //[u8 upvalue]
+    static final byte GET_PROPERTY  = 12;  //[u16 name]
+    static final byte SET_PROPERTY  = 13;  //[u16 name]
+    static final byte GET_SUPER     = 14;  //[u16 name]
+    static final byte EQUAL         = 15;
+    static final byte NOT_EQUAL     = 16;
+    static final byte GREATER       = 17;
+    static final byte GREATER_EQUAL = 18;
+    static final byte LESSER        = 19;
+    static final byte LESSER_EQUAL  = 20;
+    static final byte ADD           = 21;
+    static final byte SUBTRACT      = 22;
+    static final byte MULTIPLY      = 23;
+    static final byte DIVIDE        = 24;
+    static final byte NOT           = 25;
+    static final byte NEGATE        = 26;
+    static final byte PRINT         = 27;
+    static final byte JUMP          = 28;  //[u16 forward offset]
+    static final byte JUMP_IF_FALSE = 29;  //[u16 forward offset]
+    static final byte LOOP          = 30;  //[u16 backward offset]
+    static final byte CALL          = 31;  //[u8 argument count]
+    static final byte INVOKE        = 32;  //[u16 name][u8 argument count]
+    static final byte SUPER_INVOKE  = 33;  //[u16 name][u8 argument count]
+    static final byte CLOSURE       = 34;  //[u16 function] then [u8 isLocal][u8 index] per upvalue
+    static final byte CLOSE_UPVALUE = 35;
+    static final byte RETURN        = 36;
+    static final byte CLASS         = 37;  //[u16 name]
+    static final byte INHERIT       = 38;
+    static final byte METHOD        = 39;  //[u16 name]
+    //calls whose value is returned right away, the callee takes over the caller's frame.
+    //they're followed by a RETURN for callees that can't, like natives and classes
+    static final byte TAIL_CALL     = 40;  //[u8 argument count]
+    static final byte TAIL_INVOKE   = 41;  //[u16 name][u8 argument count]
+    static final byte TAIL_SUPER_INVOKE = 42;  //[u16 name][u8 argument count]
+    static final byte GET_INDEX     = 43;
+    static final byte SET_INDEX     = 44;
+    //fails unless the top of the stack is an instance, so a field store
+    //reports a bad receiver before its value is evaluated
+    static final byte CHECK_INSTANCE = 45;
+    //fails unless the two values on top of the stack are an array and an
+    //index in its range, so an element store checks before its value
+    static final byte CHECK_INDEX   = 46;
+
+    private OpCode(){}
+}
@@ -0,0 +1,322 @@
+package mul;
+
+import java.util.ArrayList;
+import java.util.List;
+import static mul.TokenType.*;
+
+//runs between the resolver and the interpreter: folds operators applied
+//to literals, picks the branch of ternaries and ifs with a literal
+//condition and drops groupings. an operation that would fail at runtime,
+//like "a" - 1, is left alone so it still fails there, on its own line.
+//-Dmul.optimize=false leaves the tree the way the parser built it
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt>{
+    static final boolean ENABLED = !"false".equals(System.getProperty("mul.optimize"));
+
+    //optimizes the statements in place, statements that can never run are removed
+    List<Stmt> optimize(List<Stmt> statements){
+        for(int i = 0; i < statements.size(); ++i){
+            Stmt statement = optimize(statements.get(i));
+            if(statement == null){
+                statements.remove(i--);
+            }else{
+                statements.set(i, statement);
+            }
+        }
+        return statements;
+    }
+
+    //------------------------------------------------------------------------------STATEMENTS:
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt){
+        optimize(stmt.statements);
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt){
+        for(Stmt.Function method: stmt.methods){
+            optimize(method.body);
+        }
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt){
+        optimize(stmt.body);
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt){
+        Expr expression = optimize(stmt.expression);
+        if(expression == stmt.expression)
+            return stmt;
+        return new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitForStmt(Stmt.For stmt){
+        Stmt initializer = optimize(stmt.initializer);
+        Expr condition = optimize(stmt.condition);
+        Expr increment = optimize(stmt.increment);
+        Stmt body = optimize(stmt.body);
+        if(body == null)
+            body = empty();
+
+        if(initializer == stmt.initializer && condition == stmt.condition && increment == stmt.increment && body == stmt.body)
+            return stmt;
+
+        Stmt.For loop = new Stmt.For(initializer, condition, increment, body);
+        loop.slotCount = stmt.slotCount;
+        return loop;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt){
+        Expr condition = optimize(stmt.condition);
+        Stmt thenBranch = optimize(stmt.thenBranch);
+        Stmt elseBranch = optimize(stmt.elseBranch);
+
+        if(condition instanceof Expr.Literal){
+            if(Interpreter.isTruthy(((Expr.Literal)condition).value))
+                return thenBranch;
+            return elseBranch;
+        }
+
+        //the branches of an if are required, a branch that can never run becomes empty
+        if(thenBranch == null)
+            thenBranch = empty();
+
+        if(condition == stmt.condition && thenBranch == stmt.thenBranch && elseBranch == stmt.elseBranch)
+            return stmt;
+        return new Stmt.If(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt){
+        Expr expression = optimize(stmt.expression);
+        if(expression == stmt.expression)
+            return stmt;
+        return new Stmt.Print(expression);
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt){
+        Expr value = optimize(stmt.value);
+        if(value == stmt.value)
+            return stmt;
+        return new Stmt.Return(stmt.keyword, value);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt){
+        Expr initializer = optimize(stmt.initializer);
+        if(initializer == stmt.initializer)
+            return stmt;
+
+        Stmt.Var var = new Stmt.Var(stmt.name, initializer);
+        var.slot = stmt.slot;
+        return var;
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt){
+        Expr condition = optimize(stmt.condition);
+        Stmt body = optimize(stmt.body);
+        if(body == null)
+            body = empty();
+
+        if(condition == stmt.condition && body == stmt.body)
+            return stmt;
+        return new Stmt.While(condition, body);
+    }
+
+    //------------------------------------------------------------------------------EXPRESSIONS:
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr){
+        Expr value = optimize(expr.value);
+        if(value == expr.value)
+            return expr;
+
+        Expr.Assign assign = new Expr.Assign(expr.name, value);
+        assign.depth = expr.depth;
+        assign.slot = expr.slot;
+        return assign;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr){
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        if(left instanceof Expr.Literal && right instanceof Expr.Literal){
+            try{
+                Object value = Interpreter.binary(expr.operator, ((Expr.Literal)left).value, ((Expr.Literal)right).value);
+                //a literal is a plain String
+                if(value instanceof MulString)
+                    value = value.toString();
+                return new Expr.Literal(value);
+            }catch(RuntimeError error){
+                //keep the operation, the error belongs to the run
+            }
+        }
+
+        if(left == expr.left && right == expr.right)
+            return expr;
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitTernaryExpr(Expr.Ternary expr){
+        Expr condition = optimize(expr.condition);
+        Expr thenExpr = optimize(expr.thenExpr);
+        Expr elseExpr = optimize(expr.elseExpr);
+
+        if(condition instanceof Expr.Literal)
+            return Interpreter.isTruthy(((Expr.Literal)condition).value) ? thenExpr : elseExpr;
+
+        if(condition == expr.condition && thenExpr == expr.thenExpr && elseExpr == expr.elseExpr)
+            return expr;
+        return new Expr.Ternary(condition, thenExpr, elseExpr);
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr){
+        Expr callee = optimize(expr.callee);
+        boolean changed = callee != expr.callee;
+
+        List<Expr> arguments = new ArrayList<>(expr.arguments.size());
+        for(Expr argument: expr.arguments){
+            Expr optimized = optimize(argument);
+            changed |= optimized != argument;
+            arguments.add(optimized);
+        }
+
+        if(!changed)
+            return expr;
+
+        Expr.Call call = new Expr.Call(callee, expr.paren, arguments);
+        call.tail = expr.tail;
+        return call;
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr){
+        Expr object = optimize(expr.object);
+        if(object == expr.object)
+            return expr;
+        return new Expr.Get(object, expr.name);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr){
+        return optimize(expr.expression);
+    }
+
+    @Override
+    public Expr visitIndexExpr(Expr.Index expr){
+        Expr object = optimize(expr.object);
+        Expr index = optimize(expr.index);
+        if(object == expr.object && index == expr.index)
+            return expr;
+        return new Expr.Index(object, expr.bracket, index);
+    }
+
+    @Override
+    public Expr visitIndexSetExpr(Expr.IndexSet expr){
+        Expr object = optimize(expr.object);
+        Expr index = optimize(expr.index);
+        Expr value = optimize(expr.value);
+        if(object == expr.object && index == expr.index && value == expr.value)
+            return expr;
+        return new Expr.IndexSet(object, expr.bracket, index, value);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr){
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr){
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        //the value of a logical expression is the operand that decided it
+        if(left instanceof Expr.Literal){
+            boolean truthy = Interpreter.isTruthy(((Expr.Literal)left).value);
+            if(expr.operator._type == OR)
+                return truthy ? left : right;
+            return truthy ? right : left;
+        }
+
+        if(left == expr.left && right == expr.right)
+            return expr;
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr){
+        Expr object = optimize(expr.object);
+        Expr value = optimize(expr.value);
+        if(object == expr.object && value == expr.value)
+            return expr;
+        return new Expr.Set(object, expr.name, value);
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr){
+        return expr;
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr){
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr){
+        Expr right = optimize(expr.right);
+
+        if(right instanceof Expr.Literal){
+            Object value = ((Expr.Literal)right).value;
+            switch(expr.operator._type){
+                case BANG:
+                    return new Expr.Literal(!Interpreter.isTruthy(value));
+                case MINUS:
+                    if(value instanceof Double)
+                        return new Expr.Literal(-(double)value);
+                    break;
+            }
+        }
+
+        if(right == expr.right)
+            return expr;
+        return new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr){
+        return expr;
+    }
+
+    //------------------------------------------------------------------------------HELPERS:
+
+    private Stmt optimize(Stmt stmt){
+        if(stmt == null)
+            return null;
+        return stmt.accept(this);
+    }
+
+    private Expr optimize(Expr expr){
+        if(expr == null)
+            return null;
+        return expr.accept(this);
+    }
+
+    private static Stmt empty(){
+        return new Stmt.Block(new ArrayList<>());
+    }
+}
@@ -0,0 +1,95 @@
+package mul;
+
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+//where print writes. the interpreter and the VM append lines to a 64K buffer in
+//front of standard output, or of the file given with --output=<file>, instead of
+//going through System.out, which locks and may flush on every line. Mul flushes
+//it when a script ends, before an error is reported and before the REPL prompts.
+//like System.out, a failed write is silently dropped
+final class Output{
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final String NEWLINE = System.lineSeparator();
+
+    //room for the digits of a printed integer, there's one thread printing
+    private static final char[] digits = new char[20];
+
+    private static Writer out = writer(new FileOutputStream(FileDescriptor.out),
+        Charset.forName(System.getProperty("sun.stdout.encoding", Charset.defaultCharset().name())));
+
+    private Output(){}
+
+    static void println(String line){
+        try{
+            out.write(line);
+            out.write(NEWLINE);
+        }catch(IOException e){
+            //nowhere left to report it
+        }
+    }
+
+    //prints a value the way Interpreter.stringify() writes it,
+    //numbers that are plain integers without making a String
+    static void printValue(Object value){
+        if(value instanceof Double && Interpreter.isPlainInteger((double)value)){
+            long number = (long)(double)value;
+            long rest = Math.abs(number);
+            int start = digits.length;
+            do{
+                digits[--start] = (char)('0' + rest % 10);
+                rest /= 10;
+            }while(rest != 0);
+            if(number < 0)
+                digits[--start] = '-';
+
+            try{
+                out.write(digits, start, digits.length - start);
+                out.write(NEWLINE);
+            }catch(IOException e){
+                //nowhere left to report it
+            }
+            return;
+        }
+
+        println(Interpreter.stringify(value));
+    }
+
+    static void print(String text){
+        try{
+            out.write(text);
+        }catch(IOException e){
+            //nowhere left to report it
+        }
+    }
+
+    static void flush(){
+        try{
+            out.flush();
+        }catch(IOException e){
+            //nowhere left to report it
+        }
+    }
+
+    //sends what's printed from now on to the file, replacing it
+    static void toFile(Path file) throws IOException{
+        to(Files.newOutputStream(file));
+    }
+
+    static void to(OutputStream stream){
+        flush();
+        out = writer(stream, Charset.defaultCharset());
+    }
+
+    private static Writer writer(OutputStream stream, Charset charset){
+        return new BufferedWriter(new OutputStreamWriter(stream, charset), BUFFER_SIZE);
+    }
+}
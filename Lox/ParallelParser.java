@@ -0,0 +1,135 @@
+package mul;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import static mul.TokenType.*;
+
+//parses a large script on a ForkJoinPool. the scanner keeps running on the
+//calling thread and cuts the token stream into chunks where a class, funct
+//or var declaration starts at the top level, each chunk is parsed as soon
+//as it is complete and the statements are put back together in order
+class ParallelParser{
+    //scripts smaller than this are parsed on the calling thread
+    static final long THRESHOLD = 1 << 20;
+    //chunks end at the first declaration boundary after this many tokens
+    private static final int CHUNK_TOKENS = 8192;
+
+    private final Scanner scanner;
+    private final ForkJoinPool pool;
+
+    ParallelParser(Scanner scanner){
+        this(scanner, ForkJoinPool.commonPool());
+    }
+
+    ParallelParser(Scanner scanner, ForkJoinPool pool){
+        this.scanner = scanner;
+        this.pool = pool;
+    }
+
+    //statements and errors of one chunk
+    private static class Chunk{
+        final List<Stmt> statements;
+        final List<Mul.DeferredError> errors;
+
+        Chunk(List<Stmt> statements, List<Mul.DeferredError> errors){
+            this.statements = statements;
+            this.errors = errors;
+        }
+    }
+
+    List<Stmt> parse(){
+        List<ForkJoinTask<Chunk>> chunks = new ArrayList<>();
+        List<Token> tokens = new ArrayList<>();
+        //braces and parentheses, a boundary is only taken outside of both
+        int depth = 0;
+        Token previous = null;
+        //scan errors wait with the chunk they were found in, so they are
+        //reported after the errors of every chunk before it
+        List<Mul.DeferredError> scanErrors = Mul.deferErrors();
+
+        try{
+            for(Token token = scanner.nextToken(); token._type != EOF; token = scanner.nextToken()){
+                if(depth == 0 && tokens.size() >= CHUNK_TOKENS && isBoundary(previous, token)){
+                    chunks.add(submit(tokens, token, scanErrors));
+                    tokens = new ArrayList<>();
+                    scanErrors = Mul.deferErrors();
+                }
+
+                tokens.add(token);
+                switch(token._type){
+                    case LEFT_BRACE:
+                    case LEFT_PAREN:
+                        depth++;
+                        break;
+                    case RIGHT_BRACE:
+                    case RIGHT_PAREN:
+                        //stray closing tokens are the parser's problem
+                        if(depth > 0)
+                            depth--;
+                        break;
+                }
+                previous = token;
+            }
+            chunks.add(submit(tokens, scanner.nextToken(), scanErrors));
+        }finally{
+            Mul.stopDeferring();
+        }
+
+        //errors come out in source order, a chunk's only once every chunk before it was parsed
+        List<Stmt> statements = new ArrayList<>();
+        for(ForkJoinTask<Chunk> task: chunks){
+            Chunk chunk = task.join();
+            Mul.reportErrors(chunk.errors);
+            statements.addAll(chunk.statements);
+        }
+
+        return statements;
+    }
+
+    //a declaration right after a statement ended
+    private static boolean isBoundary(Token previous, Token token){
+        if(previous._type != SEMICOLON && previous._type != RIGHT_BRACE)
+            return false;
+
+        return token._type == CLASS || token._type == FUNCT || token._type == VAR;
+    }
+
+    //end is the token right after the chunk, the chunk gets an EOF on its line
+    private ForkJoinTask<Chunk> submit(List<Token> tokens, Token end, List<Mul.DeferredError> scanErrors){
+        tokens.add(new Token(EOF, "", null, end._line));
+        return pool.submit(() -> parse(tokens, scanErrors));
+    }
+
+    private static Chunk parse(List<Token> tokens, List<Mul.DeferredError> scanErrors){
+        List<Mul.DeferredError> errors = Mul.deferErrors();
+        try{
+            List<Stmt> statements = new Parser(tokens).parse();
+            return new Chunk(statements, merge(scanErrors, errors));
+        }finally{
+            Mul.stopDeferring();
+        }
+    }
+
+    //both lists are in line order, a scan error goes first on a line they share
+    //since the scanner gets to a token before the parser does
+    private static List<Mul.DeferredError> merge(List<Mul.DeferredError> scanErrors, List<Mul.DeferredError> parseErrors){
+        if(scanErrors.isEmpty())
+            return parseErrors;
+
+        List<Mul.DeferredError> errors = new ArrayList<>(scanErrors.size() + parseErrors.size());
+        int i = 0;
+        int j = 0;
+        while(i < scanErrors.size() && j < parseErrors.size()){
+            if(scanErrors.get(i).line <= parseErrors.get(j).line){
+                errors.add(scanErrors.get(i++));
+            }else{
+                errors.add(parseErrors.get(j++));
+            }
+        }
+        errors.addAll(scanErrors.subList(i, scanErrors.size()));
+        errors.addAll(parseErrors.subList(j, parseErrors.size()));
+        return errors;
+    }
+}
@@ -1,18 +1,30 @@
 package mul;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
+import java.util.function.Supplier;
 import static mul.TokenType.*;
 
 class Parser{
     private static class ParseError extends RuntimeException{}
 
-    final private List<Token> _tokens; 
-    private int current = 0;
+    //tokens are pulled from the source one at a time, the parser
+    //only ever looks at the current token and the one before it
+    final private Supplier<Token> _source;
+    private Token current;
+    private Token previous = null;
+
+    Parser(Scanner scanner){
+        this(scanner::nextToken);
+    }
 
     Parser(List<Token> tokens){
-        this._tokens = tokens;
+        this(tokens.iterator()::next);
+    }
+
+    private Parser(Supplier<Token> source){
+        this._source = source;
+        this.current = source.get();
     }
 
     List<Stmt> parse(){
@@ -173,27 +185,14 @@ class Parser{
         consume(SEMICOLON, "Expect ';' after loop condition!");
 
         Expr increment = null;
-        if(!check(SEMICOLON)){
+        if(!check(RIGHT_PAREN)){
             increment = expression();
         }
         consume(RIGHT_PAREN, "Expect ')' after for clause!");
 
         Stmt body = statement();
 
-        if(increment != null){
-            body = new Stmt.Block(Arrays.asList(body, new Stmt.Expression(increment)));
-        } 
-
-        if(condition == null)
-            condition = new Expr.Literal(true);
-
-        body = new Stmt.While(condition, body);
-
-        if(initializer != null){
-            body = new Stmt.Block(Arrays.asList(initializer, body));
-        }   
-
-        return body;
+        return new Stmt.For(initializer, condition, increment, body);
     }
 
     private Stmt ifStatement(){
@@ -263,6 +262,20 @@ class Parser{
                         break;
                 }
                 return new Expr.Set(get.object, get.name, value);
+            }else if(expr instanceof Expr.Index){
+                Expr.Index index = (Expr.Index)expr;
+
+                switch(equals._type){
+                    case PLUS_EQUAL:
+                        Token plus = new Token(PLUS, "+", null, index.bracket._line);
+                        value  = new Expr.Binary(expr, plus, value);
+                        break;
+                    case MINUS_EQUAL:
+                        Token minus = new Token(MINUS, "-", null, index.bracket._line);
+                        value  = new Expr.Binary(expr, minus, value);
+                        break;
+                }
+                return new Expr.IndexSet(index.object, index.bracket, index.index, value);
             }
 
             error(equals, "Invalid assignment target!");
@@ -376,6 +389,11 @@ class Parser{
             }else if(match(DOT)){
                 Token name = consume(IDENTIFIER, "Expect property name after '.'.");
                 expr = new Expr.Get(expr, name);
+            }else if(match(LEFT_BRACKET)){
+                Token bracket = previous();
+                Expr index = expression();
+                consume(RIGHT_BRACKET, "Expect ']' after index.");
+                expr = new Expr.Index(expr, bracket, index);
             }else{
                 break;
             }
@@ -490,12 +508,14 @@ class Parser{
     }
 
     private Token peek(){
-        return _tokens.get(current);
+        return current;
     }
 
     private Token advance(){
-        if(!IsAtEnd())
-            current++;
+        if(!IsAtEnd()){
+            previous = current;
+            current = _source.get();
+        }
         
         return previous();
     }
@@ -506,7 +526,7 @@ class Parser{
 
 
     private Token previous(){
-        return _tokens.get(current - 1);
+        return previous;
     }
 
 }
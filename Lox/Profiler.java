@@ -0,0 +1,150 @@
+package mul;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//samples the Mul call stack of the interpreter from a timer thread, started
+//by --profile. the interpreter only pushes and pops the declarations of the
+//functions it runs, the sampler turns them into names and counts the stacks
+//it sees. they are written in the collapsed format flame graph tools read,
+//one stack per line with the number of samples that caught it:
+//
+//  <script>;main:12;fib:3 118
+//
+//-Dmul.profile.interval sets the milliseconds between samples, 1 by default
+class Profiler{
+    static final long INTERVAL = Long.getLong("mul.profile.interval", 1);
+    private static final String ROOT = "<script>";
+
+    //written by the interpreter thread only, the sampler reads them without
+    //locking and may catch a frame being replaced, which a sample can live with
+    private volatile Stmt.Function[] stack = new Stmt.Function[64];
+    //a release store is enough to publish a push or pop and costs nothing on x86
+    private final AtomicInteger depth = new AtomicInteger();
+    //every function called at least once, in the order of their first call
+    private final List<Stmt.Function> called = new ArrayList<>();
+
+    //only touched by the sampler until it has been stopped
+    private final Map<String, Long> samples = new HashMap<>();
+    private final Thread sampler;
+    private volatile boolean running = true;
+
+    Profiler(){
+        sampler = new Thread(this::sample, "mul-profiler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    void enter(Stmt.Function function){
+        if(function.profiledCalls++ == 0)
+            called.add(function);
+
+        int top = depth.get();
+        Stmt.Function[] frames = stack;
+        if(top == frames.length){
+            frames = Arrays.copyOf(frames, top * 2);
+            stack = frames;
+        }
+        frames[top] = function;
+        depth.lazySet(top + 1);
+    }
+
+    void exit(){
+        depth.lazySet(depth.get() - 1);
+    }
+
+    private void sample(){
+        StringBuilder key = new StringBuilder();
+        while(running){
+            try{
+                Thread.sleep(INTERVAL);
+            }catch(InterruptedException e){
+                return;
+            }
+
+            int top = depth.get();
+            Stmt.Function[] frames = stack;
+            key.setLength(0);
+            key.append(ROOT);
+            for(int i = 0; i < top && i < frames.length; ++i){
+                Stmt.Function frame = frames[i];
+                if(frame != null)
+                    key.append(';').append(name(frame));
+            }
+            samples.merge(key.toString(), 1L, Long::sum);
+        }
+    }
+
+    //stops sampling, writes the collapsed stacks to the file and
+    //a table of the time spent in each function to standard error
+    void stop(Path file) throws IOException{
+        running = false;
+        sampler.interrupt();
+        try{
+            sampler.join();
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+
+        try(PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))){
+            for(Map.Entry<String, Long> entry: samples.entrySet()){
+                out.println(entry.getKey() + " " + entry.getValue());
+            }
+        }
+
+        report();
+    }
+
+    private void report(){
+        Map<String, long[]> times = new HashMap<>();
+        long total = 0;
+        for(Map.Entry<String, Long> entry: samples.entrySet()){
+            String[] frames = entry.getKey().split(";");
+            long count = entry.getValue();
+            total += count;
+
+            //a recursive function is only counted once per stack for its total time
+            Set<String> seen = new HashSet<>();
+            for(String frame: frames){
+                if(seen.add(frame))
+                    times.computeIfAbsent(frame, name -> new long[2])[1] += count;
+            }
+            times.get(frames[frames.length - 1])[0] += count;
+        }
+
+        List<String> names = new ArrayList<>(times.keySet());
+        Map<String, Long> calls = new HashMap<>();
+        for(Stmt.Function function: called){
+            String name = name(function);
+            calls.merge(name, function.profiledCalls, Long::sum);
+            if(!times.containsKey(name)){
+                times.put(name, new long[2]);
+                names.add(name);
+            }
+        }
+        names.sort((a, b) -> Long.compare(times.get(b)[0], times.get(a)[0]));
+
+        System.err.printf("%d samples, %d ms apart%n", total, INTERVAL);
+        System.err.printf("%-40s %12s %10s %10s%n", "function", "calls", "self ms", "total ms");
+        for(String name: names){
+            long[] time = times.get(name);
+            String count = name.equals(ROOT) ? "" : Long.toString(calls.getOrDefault(name, 0L));
+            System.err.printf("%-40s %12s %10d %10d%n", name, count, time[0] * INTERVAL, time[1] * INTERVAL);
+        }
+    }
+
+    private static String name(Stmt.Function function){
+        return function.name._lexeme + ":" + function.name._line;
+    }
+}
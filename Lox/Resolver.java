@@ -1,13 +1,18 @@
 package mul;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Stack;
+import java.util.function.IntConsumer;
 
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     private final Interpreter interpreter; 
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final Stack<Scope> scopes = new Stack<>();
+    //uses of locals inside the outermost scope being resolved, they get
+    //their depth and slot once that scope is closed and laid out
+    private final List<Reference> references = new ArrayList<>();
     private FunctionType currentFunction = FunctionType.NONE;
     private ClassType currentClass = ClassType.NONE;
 
@@ -28,11 +33,84 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         SUBCLASS
     };
 
+    //a function body, block, loop or the "super" scope of a class. only functions, the super
+    //scope and scopes with a local captured by a closure get an environment of their own at
+    //runtime, the locals of any other scope take slots in the nearest enclosing environment
+    private static class Scope{
+        final Scope enclosing;
+        final Stmt owner;
+        final boolean function;
+        final boolean alwaysFramed;
+        final Map<String, Local> names = new IdentityHashMap<>();
+        final List<Local> locals = new ArrayList<>();
+        final List<Scope> children = new ArrayList<>();
+
+        //decided by layout()
+        boolean framed;
+        Scope frame;
+
+        Scope(Scope enclosing, Stmt owner, boolean function, boolean alwaysFramed){
+            this.enclosing = enclosing;
+            this.owner = owner;
+            this.function = function;
+            this.alwaysFramed = alwaysFramed;
+        }
+
+        Scope function(){
+            Scope scope = this;
+            while(scope != null && !scope.function){
+                scope = scope.enclosing;
+            }
+            return scope;
+        }
+
+        boolean hasCapturedLocal(){
+            for(Local local: locals){
+                if(local.captured)
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    //a local variable and the slot it gets in the environment holding it
+    private static class Local{
+        final Scope scope;
+        //the declaration storing the slot, null for "this" and "super"
+        final IntConsumer declaration;
+        int slot;
+        boolean defined;
+        //read or assigned from a function nested in the one declaring it
+        boolean captured;
+
+        Local(Scope scope, IntConsumer declaration, boolean defined){
+            this.scope = scope;
+            this.declaration = declaration;
+            this.defined = defined;
+        }
+    }
+
+    private interface Target{
+        void resolved(int depth, int slot);
+    }
+
+    private static class Reference{
+        final Scope from;
+        final Local local;
+        final Target target;
+
+        Reference(Scope from, Local local, Target target){
+            this.from = from;
+            this.local = local;
+            this.target = target;
+        }
+    }
+
 
     @Override
     public Void visitBlockStmt(Stmt.Block block){
         
-        beginScope();
+        beginScope(block, false);
         resolve(block.statements);
         endScope();
         
@@ -41,7 +119,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt){
-        declare(stmt.name);
+        declare(stmt.name, slot -> stmt.slot = slot);
         define(stmt.name);
 
         resolveFunction(stmt, FunctionType.FUNCTION);
@@ -50,7 +128,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
 
     @Override
     public Void visitVarStmt(Stmt.Var var){
-        declare(var.name);
+        declare(var.name, slot -> var.slot = slot);
 
         if(var.initializer != null)
             resolve(var.initializer);
@@ -64,31 +142,28 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         ClassType enclosingClass = currentClass;
         currentClass = ClassType.CLASS;
 
-        declare(stmt.name);
+        declare(stmt.name, slot -> stmt.slot = slot);
         define(stmt.name);
 
-        if(stmt.superclass != null && stmt.name._lexeme.equals(stmt.superclass.name._lexeme))
+        if(stmt.superclass != null && stmt.name._lexeme == stmt.superclass.name._lexeme)
             Mul.error(stmt.superclass.name._line, "a class cannot inherit from itself.");
 
         if(stmt.superclass != null){
-            beginScope();
-            currentClass = ClassType.SUBCLASS;
-            scopes.peek().put("super", true);
+            //the superclass is evaluated in the scope surrounding the class
             resolve(stmt.superclass);
+            beginScope(null, false, true);
+            currentClass = ClassType.SUBCLASS;
+            addLocal("super", null, true);
         }
 
-        beginScope();
-        scopes.peek().put("this", true);
-
         for(Stmt.Function method: stmt.methods){
             FunctionType declaration = FunctionType.METHOD;
-            if(method.name._lexeme.equals("init"))
+            if(method.name._lexeme == "init")
                 declaration = FunctionType.INIT;
 
             resolveFunction(method, declaration);
         }
 
-        endScope();
         if(stmt.superclass != null)
             endScope();
             
@@ -106,16 +181,28 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
             Mul.error(expr.keyword._line, "Cannot use super inside a class that isn't a child."); 
         }
 
-        resolveLocal(expr, expr.keyword);
+        resolveLocal(expr.keyword._lexeme, (depth, slot) -> {
+            expr.depth = depth;
+            expr.slot = slot;
+        });
+
+        //the method is invoked on "this", not on the superclass
+        resolveLocal("this", (depth, slot) -> expr.thisDepth = depth);
         return null;
     }
 
     @Override
     public Void visitVariableExpr(Expr.Variable expr){
-        if(!scopes.isEmpty() && scopes.peek().get(expr.name._lexeme) == Boolean.FALSE)
-            Mul.error(expr.name._line, "Can't read local var in its own initializer!");
+        if(!scopes.isEmpty()){
+            Local local = scopes.peek().names.get(expr.name._lexeme);
+            if(local != null && !local.defined)
+                Mul.error(expr.name._line, "Can't read local var in its own initializer!");
+        }
 
-        resolveLocal(expr, expr.name);
+        resolveLocal(expr.name._lexeme, (depth, slot) -> {
+            expr.depth = depth;
+            expr.slot = slot;
+        });
         return null;
     }
 
@@ -127,7 +214,10 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
             return null;
         }
         
-        resolveLocal(expr, expr.keyword);
+        resolveLocal(expr.keyword._lexeme, (depth, slot) -> {
+            expr.depth = depth;
+            expr.slot = slot;
+        });
 
         return null;
     }
@@ -135,7 +225,10 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     @Override
     public Void visitAssignExpr(Expr.Assign expr){
         resolve(expr.value);
-        resolveLocal(expr, expr.name);
+        resolveLocal(expr.name._lexeme, (depth, slot) -> {
+            expr.depth = depth;
+            expr.slot = slot;
+        });
 
         return null;
     }
@@ -144,9 +237,12 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
         
-        beginScope();
+        beginScope(funct, true);
+        if(type == FunctionType.METHOD || type == FunctionType.INIT)
+            addLocal("this", null, true);
+
         for(Token param: funct.params){
-            declare(param);
+            declare(param, null);
             define(param);
         }
 
@@ -155,27 +251,42 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         currentFunction = enclosingFunction;
     }
 
-    private void resolveLocal(Expr expr, Token name){
+    //a global gets its slot in Globals right away, a local gets
+    //its depth and slot once the outermost scope has been laid out
+    private void resolveLocal(String name, Target target){
     
         for(int i = scopes.size()-1; i >= 0; --i){          //go through the scopes, starting from the innermost one to the farthest
-            if(scopes.get(i).containsKey(name._lexeme)){    //if a scope contains the variable then track how many steps away it is from the current scope
-                interpreter.resolve(expr, scopes.size()-1-i);
+            Local local = scopes.get(i).names.get(name);
+            if(local != null){
+                Scope from = current();
+                if(from.function() != local.scope.function())
+                    local.captured = true;
+
+                references.add(new Reference(from, local, target));
                 return;
             }
         }
+
+        target.resolved(Expr.GLOBAL, Globals.slot(name));
     }
 
-    private void declare(Token name){
+    //hands the new variable a slot once its scope is laid out, does nothing for a global
+    private void declare(Token name, IntConsumer declaration){
         if(scopes.isEmpty())
             return;
 
-        Map<String, Boolean> scope = scopes.peek();
-        if(scope.containsKey(name._lexeme)){
+        if(current().names.containsKey(name._lexeme)){
             Mul.error(name._line, "Already have a var declaration with this name within the given scope!");
         }
 
-        scope.put(name._lexeme, false);
-        
+        addLocal(name._lexeme, declaration, false);
+    }
+
+    private void addLocal(String name, IntConsumer declaration, boolean defined){
+        Scope scope = current();
+        Local local = new Local(scope, declaration, defined);
+        scope.names.put(name, local);
+        scope.locals.add(local);
     }
 
     private void define(Token name){
@@ -183,7 +294,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
             return;
 
         //looking at the innermost scope with peek()
-        scopes.peek().put(name._lexeme, true);
+        current().names.get(name._lexeme).defined = true;
         
     }
 
@@ -201,12 +312,79 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         expr.accept(this);
     }
 
-    private void beginScope(){
-        scopes.push(new HashMap<String, Boolean>());
+    private Scope current(){
+        return scopes.peek();
+    }
+
+    //names are interned lexemes, so scopes can compare them by identity
+    private void beginScope(Stmt owner, boolean function){
+        beginScope(owner, function, function);
+    }
+
+    private void beginScope(Stmt owner, boolean function, boolean alwaysFramed){
+        scopes.push(new Scope(scopes.isEmpty() ? null : current(), owner, function, alwaysFramed));
     }
 
     private void endScope(){
-        scopes.pop();
+        Scope scope = scopes.pop();
+        if(scope.enclosing != null){
+            scope.enclosing.children.add(scope);
+            return;
+        }
+
+        //captures are only known once the outermost scope is done
+        layout(scope, null, 0);
+        for(Reference reference: references){
+            reference.target.resolved(distance(reference.from, reference.local), reference.local.slot);
+        }
+        references.clear();
+    }
+
+    //decides which scopes get an environment and hands out the slots, the locals of scopes
+    //without one follow those of the enclosing scopes and siblings reuse the same slots.
+    //returns the slots used in the environment of the enclosing scopes
+    private int layout(Scope scope, Scope frame, int next){
+        int start = next;
+        scope.framed = scope.alwaysFramed || (!scope.locals.isEmpty() && (frame == null || scope.hasCapturedLocal()));
+        if(scope.framed){
+            frame = scope;
+            next = 0;
+        }
+        scope.frame = frame;
+
+        for(Local local: scope.locals){
+            local.slot = next++;
+            if(local.declaration != null)
+                local.declaration.accept(local.slot);
+        }
+
+        int used = next;
+        for(Scope child: scope.children){
+            used = Math.max(used, layout(child, frame, next));
+        }
+
+        setSlotCount(scope.owner, scope.framed ? used : 0);
+        return scope.framed ? start : used;
+    }
+
+    private static void setSlotCount(Stmt owner, int slotCount){
+        if(owner instanceof Stmt.Block){
+            ((Stmt.Block)owner).slotCount = slotCount;
+        }else if(owner instanceof Stmt.For){
+            ((Stmt.For)owner).slotCount = slotCount;
+        }else if(owner instanceof Stmt.Function){
+            ((Stmt.Function)owner).slotCount = slotCount;
+        }
+    }
+
+    //how many environments are between the use of a local and the one holding it
+    private static int distance(Scope from, Local local){
+        int distance = 0;
+        for(Scope scope = from; scope != local.scope.frame; scope = scope.enclosing){
+            if(scope.framed)
+                ++distance;
+        }
+        return distance;
     }
 
     //------------------------------------------------------------------------------UNINTERESTING PARTS:
@@ -223,6 +401,10 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
 
        if(stmt.value != null)
             resolve(stmt.value);
+
+       //an initializer always returns its instance, so nothing it calls is in tail position
+       if(stmt.value instanceof Expr.Call && currentFunction != FunctionType.INIT)
+            ((Expr.Call)stmt.value).tail = true;
        return null;
     }
 
@@ -239,6 +421,26 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         return null;
     }
 
+    @Override
+    public Void visitForStmt(Stmt.For statement){
+        //the variable of a var initializer lives in a scope of its own, shared by every iteration
+        boolean scoped = statement.initializer instanceof Stmt.Var;
+        if(scoped)
+            beginScope(statement, false);
+
+        if(statement.initializer != null)
+            resolve(statement.initializer);
+        if(statement.condition != null)
+            resolve(statement.condition);
+        if(statement.increment != null)
+            resolve(statement.increment);
+        resolve(statement.body);
+
+        if(scoped)
+            endScope();
+        return null;
+    }
+
     @Override
     public Void visitIfStmt(Stmt.If statement){
         resolve(statement.condition);
@@ -309,6 +511,21 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         return null;
     }
 
+    @Override
+    public Void visitIndexExpr(Expr.Index expr){
+        resolve(expr.object);
+        resolve(expr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexSetExpr(Expr.IndexSet expr){
+        resolve(expr.object);
+        resolve(expr.index);
+        resolve(expr.value);
+        return null;
+    }
+
     @Override
     public Void visitSetExpr(Expr.Set expr){
         resolve(expr.value);
@@ -1,21 +1,37 @@
 package mul;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import static mul.TokenType.*;
 
+//produces tokens on demand, the input is either all in memory or read
+//in chunks from a Reader, keeping only the chars from the start of the
+//token being scanned onwards
 class Scanner{
-    private final String _input;
-    private final List<Token> _tokens = new ArrayList<>();
+    private static final int CHUNK = 8192;
+
+    //null once the whole input is in the buffer
+    private Reader _reader;
+    private char[] _buffer;
+    private int limit;
+    //start and current are positions in the buffer
     private int start = 0;
     private int current = 0;
     private int line = 1;
+    //the token scanToken() produced, if any
+    private Token next = null;
+    private final StringTable strings = new StringTable();
 
     private static final Map<String, TokenType> keywords;
     static {
-        keywords = new HashMap<>();
+        //lexemes are interned, so the keywords can be looked up by identity
+        keywords = new IdentityHashMap<>();
         keywords.put("and", AND);
         keywords.put("or", OR);
         keywords.put("if", IF);
@@ -36,18 +52,42 @@ class Scanner{
         keywords.put("eof", EOF);
     }
 
-    Scanner(String input){
-        _input = input;
+    Scanner(CharSequence input){
+        _reader = null;
+        _buffer = input.toString().toCharArray();
+        limit = _buffer.length;
     }
 
-    List<Token> scanTokens(){
-        while(!isAtEnd()){
+    Scanner(Reader reader){
+        _reader = reader;
+        _buffer = new char[CHUNK];
+        limit = 0;
+    }
+
+    //returns EOF once the input is used up, and keeps returning it after that
+    Token nextToken(){
+        while(next == null){
+            if(isAtEnd())
+                return new Token(EOF, "", null, line);
+
             start = current;
             scanToken();
         }
 
-        _tokens.add(new Token(EOF, "", null, line));
-        return _tokens;
+        Token token = next;
+        next = null;
+        return token;
+    }
+
+    List<Token> scanTokens(){
+        List<Token> tokens = new ArrayList<>();
+        Token token;
+        do{
+            token = nextToken();
+            tokens.add(token);
+        }while(token._type != EOF);
+
+        return tokens;
     }
 
     private void scanToken(){
@@ -66,6 +106,12 @@ class Scanner{
             case '}': 
                 addToken(RIGHT_BRACE);
                 break;
+            case '[': 
+                addToken(LEFT_BRACKET);
+                break;
+            case ']': 
+                addToken(RIGHT_BRACKET);
+                break;
             case ';': 
                 addToken(SEMICOLON);
                 break;
@@ -146,12 +192,12 @@ class Scanner{
         while(isAlphaNumeric(peek()))
             advance();
 
-        String text = _input.substring(start, current);
+        String text = strings.intern(_buffer, start, current - start);
         TokenType type = keywords.get(text);
         if(type == null)
             type = IDENTIFIER; 
 
-        addToken(type);
+        next = new Token(type, text, null, line);
     }
 
     private void string(){
@@ -174,7 +220,7 @@ class Scanner{
         advance();
 
         //trim the quotes
-        value = _input.substring(start+1, current-1);
+        value = text(start+1, current-1);
         addToken(STRING, value);
     }
 
@@ -193,21 +239,21 @@ class Scanner{
                 advance();
         }
 
-        addToken(NUMBER, Double.parseDouble(_input.substring(start, current)));
+        addToken(NUMBER, Double.parseDouble(text(start, current)));
     }
 
     private char peekNext(){
-        if((current+1) >= _input.length()) 
+        if(!fill(1)) 
             return '\0';
 
-        return _input.charAt(current+1);
+        return _buffer[current+1];
     }
 
     private boolean match(char expected){
         if(isAtEnd())
             return false;
         
-        if(_input.charAt(current) != expected)
+        if(_buffer[current] != expected)
             return false;
 
         current++;
@@ -218,12 +264,13 @@ class Scanner{
         if(isAtEnd()) 
             return '\0';
 
-        return _input.charAt(current);
+        return _buffer[current];
     }
 
+    //only called once peek() or isAtEnd() made sure the char is there
     private char advance(){
         current++;
-        return _input.charAt(current-1);
+        return _buffer[current-1];
     }
 
     private void addToken(TokenType type){
@@ -231,12 +278,57 @@ class Scanner{
     }
 
     private boolean isAtEnd(){
-        return current >= _input.length();
+        return !fill(0);
     }
 
     private void addToken(TokenType type, Object literal){
-        String text = _input.substring(start, current);
-        _tokens.add(new Token(type, text, literal, line));
+        //literals aren't worth interning, they are rarely repeated
+        String lexeme;
+        if(type == STRING || type == NUMBER){
+            lexeme = text(start, current);
+        }else{
+            lexeme = strings.intern(_buffer, start, current - start);
+        }
+
+        next = new Token(type, lexeme, literal, line);
+    }
+
+    private String text(int from, int to){
+        return new String(_buffer, from, to - from);
+    }
+
+    //makes sure the char ahead of current is in the buffer,
+    //returns false if the input ends before it
+    private boolean fill(int ahead){
+        while(current + ahead >= limit){
+            if(_reader == null)
+                return false;
+
+            //drop whatever is before the token being scanned
+            if(start > 0){
+                System.arraycopy(_buffer, start, _buffer, 0, limit - start);
+                limit -= start;
+                current -= start;
+                start = 0;
+            }
+
+            if(limit == _buffer.length)
+                _buffer = Arrays.copyOf(_buffer, _buffer.length * 2);
+
+            try{
+                int read = _reader.read(_buffer, limit, _buffer.length - limit);
+                if(read < 0){
+                    _reader.close();
+                    _reader = null;
+                }else{
+                    limit += read;
+                }
+            }catch(IOException e){
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        return true;
     }
 }
 
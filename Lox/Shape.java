@@ -0,0 +1,53 @@
+package mul;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+//hidden class of a MulInstance: which field lives at which index of the
+//instance's field array. instances of a class that got the same fields
+//in the same order share one shape, adding a field moves an instance to
+//the next shape along a transition
+class Shape{
+    private final String[] names;
+    private Map<String, Shape> transitions = null;
+
+    Shape(){
+        this.names = new String[0];
+    }
+
+    private Shape(String[] names){
+        this.names = names;
+    }
+
+    int fieldCount(){
+        return names.length;
+    }
+
+    //returns -1 if the shape has no such field, names are interned lexemes
+    int indexOf(String name){
+        for(int i = 0; i < names.length; ++i){
+            if(names[i] == name)
+                return i;
+        }
+
+        return -1;
+    }
+
+    //the shape of an instance after adding the field, the new field
+    //goes at index fieldCount() of this shape
+    Shape withField(String name){
+        if(transitions == null)
+            transitions = new IdentityHashMap<>();
+
+        Shape next = transitions.get(name);
+        if(next == null){
+            String[] nextNames = Arrays.copyOf(names, names.length + 1);
+            nextNames[names.length] = name;
+            next = new Shape(nextNames);
+            transitions.put(name, next);
+        }
+
+        return next;
+    }
+}
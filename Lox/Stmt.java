@@ -7,6 +7,7 @@ abstract class Stmt {
     R visitBlockStmt(Block stmt);
     R visitClassStmt(Class stmt);
     R visitExpressionStmt(Expression stmt);
+    R visitForStmt(For stmt);
     R visitFunctionStmt(Function stmt);
     R visitIfStmt(If stmt);
     R visitPrintStmt(Print stmt);
@@ -28,6 +29,9 @@ abstract class Stmt {
     }
 
     final List<Stmt> statements;
+    //0 when the block gets no environment: it has no locals, or
+    //they take slots in the environment of an enclosing scope
+    int slotCount;
   }
 //< stmt-block
 //> stmt-class
@@ -48,6 +52,7 @@ abstract class Stmt {
     final Token name;
     final Expr.Variable superclass;
     final List<Stmt.Function> methods;
+    int slot;
   }
 //< stmt-class
 //> stmt-expression
@@ -64,6 +69,30 @@ abstract class Stmt {
     final Expr expression;
   }
 //< stmt-expression
+//> stmt-for
+  static class For extends Stmt {
+    For(Stmt initializer, Expr condition, Expr increment, Stmt body) {
+      this.initializer = initializer;
+      this.condition = condition;
+      this.increment = increment;
+      this.body = body;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitForStmt(this);
+    }
+
+    final Stmt initializer;
+    final Expr condition;
+    final Expr increment;
+    final Stmt body;
+    //slots of the loop's own environment, 0 if it has none: only a var
+    //initializer opens a scope around the loop and it only gets an
+    //environment when a closure captures the variable
+    int slotCount;
+  }
+//< stmt-for
 //> stmt-function
   static class Function extends Stmt {
     Function(Token name, List<Token> params, List<Stmt> body) {
@@ -80,6 +109,14 @@ abstract class Stmt {
     final Token name;
     final List<Token> params;
     final List<Stmt> body;
+    int slot;
+    int slotCount;
+    //bookkeeping of the JVM compilation tier
+    int calls;
+    boolean jitDone;
+    CompiledFunction compiled;
+    //calls counted by --profile
+    long profiledCalls;
   }
 //< stmt-function
 //> stmt-if
@@ -144,6 +181,7 @@ abstract class Stmt {
 
     final Token name;
     final Expr initializer;
+    int slot;
   }
 //< stmt-var
 //> stmt-while
@@ -0,0 +1,65 @@
+package mul;
+
+//interns lexemes straight out of the scanner's buffer, so a name that was
+//seen before costs a lookup but no allocation. every string handed out is
+//also String.intern()ed: the same name coming from any scanner, or written
+//as a java literal like "init", is one object and can be compared with ==
+class StringTable{
+    private String[] entries = new String[256];
+    private int count = 0;
+
+    String intern(char[] chars, int from, int length){
+        int hash = hash(chars, from, length);
+        int mask = entries.length - 1;
+
+        int i = hash & mask;
+        for(String entry = entries[i]; entry != null; entry = entries[i]){
+            if(entry.hashCode() == hash && matches(entry, chars, from, length))
+                return entry;
+            i = (i + 1) & mask;
+        }
+
+        String string = new String(chars, from, length).intern();
+        entries[i] = string;
+        if(++count * 2 > entries.length)
+            grow();
+        return string;
+    }
+
+    //same as String.hashCode()
+    private static int hash(char[] chars, int from, int length){
+        int hash = 0;
+        for(int i = from; i < from + length; ++i){
+            hash = 31 * hash + chars[i];
+        }
+        return hash;
+    }
+
+    private static boolean matches(String entry, char[] chars, int from, int length){
+        if(entry.length() != length)
+            return false;
+
+        for(int i = 0; i < length; ++i){
+            if(entry.charAt(i) != chars[from + i])
+                return false;
+        }
+        return true;
+    }
+
+    private void grow(){
+        String[] old = entries;
+        entries = new String[old.length * 2];
+        int mask = entries.length - 1;
+
+        for(String entry: old){
+            if(entry == null)
+                continue;
+
+            int i = entry.hashCode() & mask;
+            while(entries[i] != null){
+                i = (i + 1) & mask;
+            }
+            entries[i] = entry;
+        }
+    }
+}
@@ -5,6 +5,7 @@ enum TokenType{
 SEMICOLON, COMMA, DOT,
 SLASH, STAR, MINUS, PLUS, MINUS_EQUAL, PLUS_EQUAL,
 LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE,
+LEFT_BRACKET, RIGHT_BRACKET,
 
 //two character tokens (or potential two char tok)
 EQUAL, GREATER, LESSER, BANG,
@@ -25,7 +26,7 @@ EOF
 class Token{
                           //example:
     final TokenType _type; //SEMICOLON 
-    final String _lexeme;  //;
+    final String _lexeme;  //; (interned, except for string and number literals)
     final Object _literal; //nothing
     final int _line;       //location info
 
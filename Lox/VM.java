@@ -0,0 +1,719 @@
+package mul;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//stack based virtual machine running the bytecode produced by Compiler
+class VM{
+    private static final int FRAMES_MAX = 1024;
+    private static final int STACK_MAX = FRAMES_MAX * 256;
+    //value of a global that was referenced but never defined
+    private static final Object UNDEFINED = new Object();
+
+    private static class CallFrame{
+        VmClosure closure;
+        int ip;
+        //stack slot of the callee, locals start right after it
+        int base;
+    }
+
+    private final Object[] stack = new Object[STACK_MAX];
+    private int sp = 0;
+    private final CallFrame[] frames = new CallFrame[FRAMES_MAX];
+    private int frameCount = 0;
+    private VmUpvalue openUpvalues = null;
+
+    //globals are bound to an index by the compiler
+    private final Map<String, Integer> globalSlots = new HashMap<>();
+    private final List<String> globalNames = new ArrayList<>();
+    private Object[] globals = new Object[64];
+
+    VM(){
+        for(int i = 0; i < FRAMES_MAX; ++i){
+            frames[i] = new CallFrame();
+        }
+
+        defineNative("clock", new VmNative(){
+            @Override
+            public int arity(){return 0;}
+
+            @Override
+            public Object call(Object[] arguments){
+                return (double)System.currentTimeMillis() / 1000.0;
+            }
+
+            @Override
+            public String toString(){return "<native fn>";}
+        });
+
+        defineNative("array", new VmNative(){
+            @Override
+            public int arity(){return 1;}
+
+            @Override
+            public Object call(Object[] arguments){
+                return MulArray.make(arguments[0]);
+            }
+
+            @Override
+            public String toString(){return "<native fn>";}
+        });
+
+        defineNative("len", new VmNative(){
+            @Override
+            public int arity(){return 1;}
+
+            @Override
+            public Object call(Object[] arguments){
+                return MulArray.length(arguments[0]);
+            }
+
+            @Override
+            public String toString(){return "<native fn>";}
+        });
+    }
+
+    int globalSlot(String name){
+        Integer slot = globalSlots.get(name);
+        if(slot != null)
+            return slot;
+
+        slot = globalNames.size();
+        globalNames.add(name);
+        globalSlots.put(name, slot);
+
+        if(slot == globals.length)
+            globals = Arrays.copyOf(globals, slot * 2);
+        globals[slot] = UNDEFINED;
+
+        return slot;
+    }
+
+    private void defineNative(String name, VmNative function){
+        globals[globalSlot(name)] = function;
+    }
+
+    void interpret(VmFunction script){
+        try{
+            VmClosure closure = new VmClosure(script);
+            push(closure);
+            CallFrame frame = frames[frameCount++];
+            frame.closure = closure;
+            frame.ip = 0;
+            frame.base = 0;
+            run();
+
+        }catch(RuntimeError error){
+            Mul.runtimeError(error);
+            resetStack();
+        }
+    }
+
+    private void resetStack(){
+        Arrays.fill(stack, 0, sp, null);
+        sp = 0;
+        frameCount = 0;
+        openUpvalues = null;
+    }
+
+    private void run(){
+        CallFrame frame = frames[frameCount-1];
+        byte[] code = frame.closure.function.chunk.code;
+        Object[] constants = frame.closure.function.chunk.constants;
+        int ip = frame.ip;
+        int base = frame.base;
+
+        for(;;){
+            switch(code[ip++]){
+                case OpCode.CONSTANT:
+                    push(constants[readShort(code, ip)]);
+                    ip += 2;
+                    break;
+
+                case OpCode.NIL:
+                    push(null);
+                    break;
+
+                case OpCode.TRUE:
+                    push(true);
+                    break;
+
+                case OpCode.FALSE:
+                    push(false);
+                    break;
+
+                case OpCode.POP:
+                    stack[--sp] = null;
+                    break;
+
+                case OpCode.GET_LOCAL:
+                    push(stack[base + (code[ip++] & 0xff)]);
+                    break;
+
+                case OpCode.SET_LOCAL:
+                    stack[base + (code[ip++] & 0xff)] = stack[sp-1];
+                    break;
+
+                case OpCode.GET_GLOBAL: {
+                    int slot = readShort(code, ip);
+                    ip += 2;
+                    Object value = globals[slot];
+                    if(value == UNDEFINED){
+                        frame.ip = ip;
+                        throw error(frame, "Undefined variable '" + globalNames.get(slot) + "'.");
+                    }
+                    push(value);
+                    break;
+                }
+
+                case OpCode.DEFINE_GLOBAL:
+                    globals[readShort(code, ip)] = pop();
+                    ip += 2;
+                    break;
+
+                case OpCode.SET_GLOBAL: {
+                    int slot = readShort(code, ip);
+                    ip += 2;
+                    if(globals[slot] == UNDEFINED){
+                        frame.ip = ip;
+                        throw error(frame, "Undefined variable '" + globalNames.get(slot) + "'.");
+                    }
+                    globals[slot] = stack[sp-1];
+                    break;
+                }
+
+                case OpCode.GET_UPVALUE: {
+                    VmUpvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                    push(upvalue.slot >= 0 ? stack[upvalue.slot] : upvalue.closed);
+                    break;
+                }
+
+                case OpCode.SET_UPVALUE: {
+                    VmUpvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                    if(upvalue.slot >= 0){
+                        stack[upvalue.slot] = stack[sp-1];
+                    }else{
+                        upvalue.closed = stack[sp-1];
+                    }
+                    break;
+                }
+
+                case OpCode.GET_PROPERTY: {
+                    String name = (String)constants[readShort(code, ip)];
+                    ip += 2;
+                    Object object = stack[sp-1];
+                    if(!(object instanceof VmInstance)){
+                        frame.ip = ip;
+                        throw error(frame, "Only instances have properties.");
+                    }
+
+                    VmInstance instance = (VmInstance)object;
+                    Object value = instance.fields.get(name);
+                    if(value != null || instance.fields.containsKey(name)){
+                        stack[sp-1] = value;
+                        break;
+                    }
+
+                    VmClosure method = instance.klas.methods.get(name);
+                    if(method == null){
+                        frame.ip = ip;
+                        throw error(frame, "Undefined property '" + name + "'.");
+                    }
+                    stack[sp-1] = new VmBoundMethod(instance, method);
+                    break;
+                }
+
+                case OpCode.CHECK_INSTANCE: {
+                    if(!(stack[sp-1] instanceof VmInstance)){
+                        frame.ip = ip;
+                        throw error(frame, "Only instances have fields.");
+                    }
+                    break;
+                }
+
+                //the receiver went through CHECK_INSTANCE before the value was evaluated
+                case OpCode.SET_PROPERTY: {
+                    String name = (String)constants[readShort(code, ip)];
+                    ip += 2;
+                    Object value = pop();
+                    ((VmInstance)stack[sp-1]).fields.put(name, value);
+                    stack[sp-1] = value;
+                    break;
+                }
+
+                case OpCode.GET_INDEX: {
+                    Object index = pop();
+                    String message = checkIndex(stack[sp-1], index);
+                    if(message != null){
+                        frame.ip = ip;
+                        throw error(frame, message);
+                    }
+                    stack[sp-1] = ((MulArray)stack[sp-1]).get((int)(double)index);
+                    break;
+                }
+
+                case OpCode.CHECK_INDEX: {
+                    String message = checkIndex(stack[sp-2], stack[sp-1]);
+                    if(message != null){
+                        frame.ip = ip;
+                        throw error(frame, message);
+                    }
+                    break;
+                }
+
+                //the array and the index went through CHECK_INDEX before the value was evaluated
+                case OpCode.SET_INDEX: {
+                    Object value = pop();
+                    Object index = pop();
+                    ((MulArray)stack[sp-1]).set((int)(double)index, value);
+                    stack[sp-1] = value;
+                    break;
+                }
+
+                case OpCode.GET_SUPER: {
+                    String name = (String)constants[readShort(code, ip)];
+                    ip += 2;
+                    VmClass superclass = (VmClass)pop();
+                    VmClosure method = superclass.methods.get(name);
+                    if(method == null){
+                        frame.ip = ip;
+                        throw error(frame, "the method " + name + " doesn't exist.");
+                    }
+                    stack[sp-1] = new VmBoundMethod(stack[sp-1], method);
+                    break;
+                }
+
+                case OpCode.EQUAL: {
+                    Object left = pop();
+                    stack[sp-1] = Interpreter.isEqual(left, stack[sp-1]);
+                    break;
+                }
+
+                case OpCode.NOT_EQUAL: {
+                    Object left = pop();
+                    stack[sp-1] = !Interpreter.isEqual(left, stack[sp-1]);
+                    break;
+                }
+
+                //binary operands are pushed right first, so the left one is on top
+                case OpCode.GREATER:
+                case OpCode.GREATER_EQUAL:
+                case OpCode.LESSER:
+                case OpCode.LESSER_EQUAL:
+                case OpCode.SUBTRACT:
+                case OpCode.MULTIPLY:
+                case OpCode.DIVIDE: {
+                    Object left = stack[sp-1];
+                    Object right = stack[sp-2];
+                    if(!(left instanceof Double && right instanceof Double)){
+                        frame.ip = ip;
+                        throw error(frame, "operand must be a number!");
+                    }
+
+                    double a = (double)left;
+                    double b = (double)right;
+                    Object result;
+                    switch(code[ip-1]){
+                        case OpCode.GREATER:       result = a > b; break;
+                        case OpCode.GREATER_EQUAL: result = a >= b; break;
+                        case OpCode.LESSER:        result = a < b; break;
+                        case OpCode.LESSER_EQUAL:  result = a <= b; break;
+                        case OpCode.SUBTRACT:      result = a - b; break;
+                        case OpCode.MULTIPLY:      result = a * b; break;
+                        default:                   result = a / b; break;
+                    }
+
+                    stack[--sp] = null;
+                    stack[sp-1] = result;
+                    break;
+                }
+
+                case OpCode.ADD: {
+                    Object left = stack[sp-1];
+                    Object right = stack[sp-2];
+                    Object result;
+                    if(left instanceof Double && right instanceof Double){
+                        result = (double)left + (double)right;
+                    }else if(left instanceof String && right instanceof String){
+                        result = (String)left + (String)right;
+                    }else{
+                        frame.ip = ip;
+                        throw error(frame, "Operands must be numbers or strings!");
+                    }
+
+                    stack[--sp] = null;
+                    stack[sp-1] = result;
+                    break;
+                }
+
+                case OpCode.NOT:
+                    stack[sp-1] = !Interpreter.isTruthy(stack[sp-1]);
+                    break;
+
+                case OpCode.NEGATE: {
+                    Object value = stack[sp-1];
+                    if(!(value instanceof Double)){
+                        frame.ip = ip;
+                        throw error(frame, "operand must be a number!");
+                    }
+                    stack[sp-1] = -(double)value;
+                    break;
+                }
+
+                case OpCode.PRINT:
+                    Output.printValue(pop());
+                    break;
+
+                case OpCode.JUMP:
+                    ip += readShort(code, ip) + 2;
+                    break;
+
+                case OpCode.JUMP_IF_FALSE:
+                    if(Interpreter.isTruthy(stack[sp-1])){
+                        ip += 2;
+                    }else{
+                        ip += readShort(code, ip) + 2;
+                    }
+                    break;
+
+                case OpCode.LOOP:
+                    ip -= readShort(code, ip) - 2;
+                    break;
+
+                case OpCode.CALL: {
+                    int argCount = code[ip++] & 0xff;
+                    frame.ip = ip;
+                    callValue(frame, stack[sp - argCount - 1], argCount);
+
+                    frame = frames[frameCount-1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+
+                case OpCode.TAIL_CALL: {
+                    int argCount = code[ip++] & 0xff;
+                    frame.ip = ip;
+                    tailCall(frame, stack[sp - argCount - 1], argCount);
+
+                    frame = frames[frameCount-1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+
+                case OpCode.INVOKE: {
+                    String name = (String)constants[readShort(code, ip)];
+                    int argCount = code[ip+2] & 0xff;
+                    ip += 3;
+                    frame.ip = ip;
+                    invoke(frame, name, argCount);
+
+                    frame = frames[frameCount-1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+
+                case OpCode.TAIL_INVOKE: {
+                    String name = (String)constants[readShort(code, ip)];
+                    int argCount = code[ip+2] & 0xff;
+                    ip += 3;
+                    frame.ip = ip;
+                    tailCall(frame, property(frame, name, argCount), argCount);
+
+                    frame = frames[frameCount-1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+
+                case OpCode.TAIL_SUPER_INVOKE: {
+                    String name = (String)constants[readShort(code, ip)];
+                    int argCount = code[ip+2] & 0xff;
+                    ip += 3;
+                    frame.ip = ip;
+
+                    VmClass superclass = (VmClass)pop();
+                    VmClosure method = superclass.methods.get(name);
+                    if(method == null)
+                        throw error(frame, "the method " + name + " doesn't exist.");
+                    tailCall(frame, method, argCount);
+
+                    frame = frames[frameCount-1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+
+                case OpCode.SUPER_INVOKE: {
+                    String name = (String)constants[readShort(code, ip)];
+                    int argCount = code[ip+2] & 0xff;
+                    ip += 3;
+                    frame.ip = ip;
+
+                    VmClass superclass = (VmClass)pop();
+                    VmClosure method = superclass.methods.get(name);
+                    if(method == null)
+                        throw error(frame, "the method " + name + " doesn't exist.");
+                    call(frame, method, argCount);
+
+                    frame = frames[frameCount-1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+
+                case OpCode.CLOSURE: {
+                    VmFunction function = (VmFunction)constants[readShort(code, ip)];
+                    ip += 2;
+                    VmClosure closure = new VmClosure(function);
+                    for(int i = 0; i < closure.upvalues.length; ++i){
+                        boolean isLocal = code[ip++] == 1;
+                        int index = code[ip++] & 0xff;
+                        if(isLocal){
+                            closure.upvalues[i] = captureUpvalue(base + index);
+                        }else{
+                            closure.upvalues[i] = frame.closure.upvalues[index];
+                        }
+                    }
+                    push(closure);
+                    break;
+                }
+
+                case OpCode.CLOSE_UPVALUE:
+                    closeUpvalues(sp-1);
+                    stack[--sp] = null;
+                    break;
+
+                case OpCode.RETURN: {
+                    Object result = pop();
+                    closeUpvalues(base);
+                    frameCount--;
+
+                    Arrays.fill(stack, base, sp, null);
+                    sp = base;
+                    if(frameCount == 0)
+                        return;
+
+                    push(result);
+                    frame = frames[frameCount-1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+
+                case OpCode.CLASS:
+                    push(new VmClass((String)constants[readShort(code, ip)]));
+                    ip += 2;
+                    break;
+
+                case OpCode.INHERIT: {
+                    Object superclass = stack[sp-2];
+                    if(!(superclass instanceof VmClass)){
+                        frame.ip = ip;
+                        throw error(frame, "superclass must be a class.");
+                    }
+
+                    VmClass subclass = (VmClass)pop();
+                    subclass.methods.putAll(((VmClass)superclass).methods);
+                    break;
+                }
+
+                case OpCode.METHOD: {
+                    String name = (String)constants[readShort(code, ip)];
+                    ip += 2;
+                    VmClosure method = (VmClosure)pop();
+                    ((VmClass)stack[sp-1]).methods.put(name, method);
+                    break;
+                }
+
+                default:
+                    frame.ip = ip;
+                    throw error(frame, "Unknown opcode " + code[ip-1] + ".");
+            }
+        }
+    }
+
+    private void callValue(CallFrame frame, Object callee, int argCount){
+        if(callee instanceof VmClosure){
+            call(frame, (VmClosure)callee, argCount);
+            return;
+        }
+
+        if(callee instanceof VmBoundMethod){
+            VmBoundMethod bound = (VmBoundMethod)callee;
+            stack[sp - argCount - 1] = bound.receiver;
+            call(frame, bound.method, argCount);
+            return;
+        }
+
+        if(callee instanceof VmClass){
+            VmClass klas = (VmClass)callee;
+            stack[sp - argCount - 1] = new VmInstance(klas);
+
+            VmClosure initializer = klas.methods.get("init");
+            if(initializer != null){
+                call(frame, initializer, argCount);
+            }else if(argCount != 0){
+                throw error(frame, "Expected 0 got " + argCount);
+            }
+            return;
+        }
+
+        if(callee instanceof VmNative){
+            VmNative function = (VmNative)callee;
+            if(argCount != function.arity())
+                throw error(frame, "Expected " + function.arity() + " got " + argCount);
+
+            Object[] arguments = Arrays.copyOfRange(stack, sp - argCount, sp);
+            Object result;
+            try{
+                result = function.call(arguments);
+            }catch(NativeError e){
+                throw error(frame, e.getMessage());
+            }
+            Arrays.fill(stack, sp - argCount - 1, sp, null);
+            sp -= argCount + 1;
+            push(result);
+            return;
+        }
+
+        throw error(frame, "Can only call functions and classes!");
+    }
+
+    //a closure called in tail position takes over the frame of the caller,
+    //with the callee and its arguments moved down to the caller's base
+    private void tailCall(CallFrame frame, Object callee, int argCount){
+        if(callee instanceof VmBoundMethod){
+            VmBoundMethod bound = (VmBoundMethod)callee;
+            stack[sp - argCount - 1] = bound.receiver;
+            callee = bound.method;
+        }
+
+        if(!(callee instanceof VmClosure)){
+            callValue(frame, callee, argCount);
+            return;
+        }
+
+        int base = frame.base;
+        closeUpvalues(base);
+        System.arraycopy(stack, sp - argCount - 1, stack, base, argCount + 1);
+        Arrays.fill(stack, base + argCount + 1, sp, null);
+        sp = base + argCount + 1;
+        frameCount--;
+        call(frame, (VmClosure)callee, argCount);
+    }
+
+    //what obj.name(...) calls: the field or the method, a field
+    //replaces the receiver on the stack like calling it as a value
+    private Object property(CallFrame frame, String name, int argCount){
+        Object receiver = stack[sp - argCount - 1];
+        if(!(receiver instanceof VmInstance))
+            throw error(frame, "Only instances have properties.");
+
+        VmInstance instance = (VmInstance)receiver;
+        Object field = instance.fields.get(name);
+        if(field != null || instance.fields.containsKey(name)){
+            stack[sp - argCount - 1] = field;
+            return field;
+        }
+
+        VmClosure method = instance.klas.methods.get(name);
+        if(method == null)
+            throw error(frame, "Undefined property '" + name + "'.");
+        return method;
+    }
+
+    private void invoke(CallFrame frame, String name, int argCount){
+        callValue(frame, property(frame, name, argCount), argCount);
+    }
+
+    private void call(CallFrame caller, VmClosure closure, int argCount){
+        if(argCount != closure.function.arity)
+            throw error(caller, "Expected " + closure.function.arity + " got " + argCount);
+
+        if(frameCount == FRAMES_MAX)
+            throw error(caller, "Stack overflow.");
+
+        CallFrame frame = frames[frameCount++];
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = sp - argCount - 1;
+    }
+
+    private VmUpvalue captureUpvalue(int slot){
+        VmUpvalue previous = null;
+        VmUpvalue upvalue = openUpvalues;
+        while(upvalue != null && upvalue.slot > slot){
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+
+        if(upvalue != null && upvalue.slot == slot)
+            return upvalue;
+
+        VmUpvalue created = new VmUpvalue(slot, upvalue);
+        if(previous == null){
+            openUpvalues = created;
+        }else{
+            previous.next = created;
+        }
+
+        return created;
+    }
+
+    private void closeUpvalues(int last){
+        while(openUpvalues != null && openUpvalues.slot >= last){
+            VmUpvalue upvalue = openUpvalues;
+            upvalue.closed = stack[upvalue.slot];
+            upvalue.slot = -1;
+            openUpvalues = upvalue.next;
+            upvalue.next = null;
+        }
+    }
+
+    private static int readShort(byte[] code, int ip){
+        return ((code[ip] & 0xff) << 8) | (code[ip+1] & 0xff);
+    }
+
+    private void push(Object value){
+        stack[sp++] = value;
+    }
+
+    private Object pop(){
+        Object value = stack[--sp];
+        stack[sp] = null;
+        return value;
+    }
+
+    //null if the object is an array the index is in range of
+    private static String checkIndex(Object object, Object index){
+        if(!(object instanceof MulArray))
+            return "Only arrays can be indexed.";
+        return ((MulArray)object).checkIndex(index);
+    }
+
+    //the line of the instruction the frame is executing
+    private RuntimeError error(CallFrame frame, String message){
+        int line = frame.closure.function.chunk.lines[frame.ip-1];
+        return new RuntimeError(new Token(TokenType.EOF, "", null, line), message);
+    }
+}
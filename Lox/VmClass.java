@@ -0,0 +1,19 @@
+package mul;
+
+import java.util.HashMap;
+import java.util.Map;
+
+class VmClass{
+    final String name;
+    //inherited methods are copied in when the class is created
+    final Map<String, VmClosure> methods = new HashMap<>();
+
+    VmClass(String name){
+        this.name = name;
+    }
+
+    @Override
+    public String toString(){
+        return name;
+    }
+}
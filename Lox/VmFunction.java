@@ -0,0 +1,23 @@
+package mul;
+
+//compile time representation of a function for the bytecode VM,
+//every closure created from it at runtime shares it
+class VmFunction{
+    final String name;
+    final int arity;
+    final Chunk chunk = new Chunk();
+    int upvalueCount = 0;
+
+    VmFunction(String name, int arity){
+        this.name = name;
+        this.arity = arity;
+    }
+
+    @Override
+    public String toString(){
+        if(name == null)
+            return "<script>";
+
+        return "<fn " + name + ">";
+    }
+}
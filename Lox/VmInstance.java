@@ -0,0 +1,18 @@
+package mul;
+
+import java.util.HashMap;
+import java.util.Map;
+
+class VmInstance{
+    final VmClass klas;
+    final Map<String, Object> fields = new HashMap<>();
+
+    VmInstance(VmClass klas){
+        this.klas = klas;
+    }
+
+    @Override
+    public String toString(){
+        return klas.name + " instance";
+    }
+}
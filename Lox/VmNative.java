@@ -0,0 +1,7 @@
+package mul;
+
+//a function implemented in java and callable from bytecode
+interface VmNative{
+    int arity();
+    Object call(Object[] arguments);
+}
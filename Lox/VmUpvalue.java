@@ -0,0 +1,17 @@
+package mul;
+
+//a variable captured by a closure, while the variable is still on the
+//VM stack the upvalue points at its slot, once it goes out of scope
+//the value is moved into the upvalue itself
+class VmUpvalue{
+    //-1 once closed
+    int slot;
+    Object closed;
+    //next open upvalue, ordered by decreasing slot
+    VmUpvalue next;
+
+    VmUpvalue(int slot, VmUpvalue next){
+        this.slot = slot;
+        this.next = next;
+    }
+}
@@ -0,0 +1,75 @@
+package mul;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+//the counted path of a for loop gives the same results as the generic one, so
+//whether it ran is read off MulMetrics.COUNTED_LOOPS. surefire turns metrics on
+class CountedLoopTest{
+    @Test
+    void loopFromLiteralIsCounted(){
+        long before = MulMetrics.COUNTED_LOOPS.sum();
+        String output = run(
+            "funct sum(n) {\n" +
+            "  var total = 0;\n" +
+            "  for (var i = 0; i < n; i = i + 1) total = total + i;\n" +
+            "  return total;\n" +
+            "}\n" +
+            "print sum(10);\n");
+
+        assertEquals("45", output.trim());
+        assertEquals(1, MulMetrics.COUNTED_LOOPS.sum() - before);
+    }
+
+    @Test
+    void loopFromVariableIsCounted(){
+        long before = MulMetrics.COUNTED_LOOPS.sum();
+        String output = run(
+            "var start = 5;\n" +
+            "for (var i = start; i > 0; i = i - 2) print i;\n");
+
+        assertEquals(String.join(System.lineSeparator(), "5", "3", "1"), output.trim());
+        assertEquals(1, MulMetrics.COUNTED_LOOPS.sum() - before);
+    }
+
+    @Test
+    void loopFromStringIsNotCounted(){
+        long before = MulMetrics.COUNTED_LOOPS.sum();
+        String output = run(
+            "for (var i = \"a\"; i != \"aaa\"; i = i + \"a\") print i;\n");
+
+        assertEquals(String.join(System.lineSeparator(), "a", "aa"), output.trim());
+        assertEquals(0, MulMetrics.COUNTED_LOOPS.sum() - before);
+    }
+
+    @Test
+    void bodyStoringAStringLeavesTheCountedPath(){
+        String output = run(
+            "for (var i = 0; i < 3; i = i + 1) {\n" +
+            "  print i;\n" +
+            "  if (i == 1) i = \"done\";\n" +
+            "  if (i == \"done\") i = 2;\n" +
+            "}\n");
+
+        assertEquals(String.join(System.lineSeparator(), "0", "1"), output.trim());
+    }
+
+    private static String run(String source){
+        assertTrue(MulMetrics.ENABLED, "run with -Dmul.metrics=true");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Output.to(out);
+        Interpreter interpreter = new Interpreter();
+        List<Stmt> statements = new Parser(new Scanner(source)).parse();
+        new Resolver(interpreter).resolve(statements);
+        interpreter.interpret(statements);
+        Output.flush();
+        return out.toString(Charset.defaultCharset());
+    }
+}
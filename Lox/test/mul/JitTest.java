@@ -0,0 +1,82 @@
+package mul;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+//ScriptTest checks that compiled functions give the tree-walker's results,
+//this checks that the functions it relies on really get compiled
+class JitTest{
+    //enough calls to pass the default threshold
+    private static final String CALLS = "for (var i = 0; i < 200; i = i + 1) ";
+
+    @Test
+    void numericFunctionIsCompiled(){
+        List<Stmt> statements = parse(
+            "funct add(a, b) { return a + b; }\n" +
+            "var total = 0;\n" +
+            CALLS + "total = add(total, i);\n" +
+            "print total;\n");
+
+        assertEquals("19900", run(statements));
+        assertNotNull(function(statements, 0).compiled);
+    }
+
+    @Test
+    void compiledFunctionDeoptimizesOnStrings(){
+        List<Stmt> statements = parse(
+            "funct add(a, b) { return a + b; }\n" +
+            CALLS + "add(i, i);\n" +
+            "print add(\"a\", \"b\");\n" +
+            "print add(1, 2);\n");
+
+        assertEquals(String.join(System.lineSeparator(), "ab", "3"), run(statements));
+        //deoptimizing a call doesn't throw the compiled code away
+        assertNotNull(function(statements, 0).compiled);
+    }
+
+    @Test
+    void functionWithFourParametersIsCompiled(){
+        List<Stmt> statements = parse(
+            "funct four(a, b, c, d) { return a * 1000 + b * 100 + c * 10 + d; }\n" +
+            CALLS + "four(i, i, i, i);\n" +
+            "print four(1, 2, 3, 4);\n");
+
+        assertEquals("1234", run(statements));
+        assertNotNull(function(statements, 0).compiled);
+    }
+
+    @Test
+    void functionOutsideTheSubsetIsNotCompiled(){
+        List<Stmt> statements = parse(
+            "funct show(x) { print x; }\n" +
+            CALLS + "show(i);\n");
+
+        run(statements);
+        assertNull(function(statements, 0).compiled);
+    }
+
+    private static Stmt.Function function(List<Stmt> statements, int index){
+        return (Stmt.Function)statements.get(index);
+    }
+
+    private static List<Stmt> parse(String source){
+        List<Stmt> statements = new Parser(new Scanner(source)).parse();
+        new Resolver(new Interpreter()).resolve(statements);
+        return statements;
+    }
+
+    private static String run(List<Stmt> statements){
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Output.to(out);
+        new Interpreter().interpret(statements);
+        Output.flush();
+        return out.toString(Charset.defaultCharset()).trim();
+    }
+}
@@ -0,0 +1,84 @@
+package mul;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+//what the optimizer does to the tree, ScriptTest checks that
+//running it gives the same results as running it unoptimized
+class OptimizerTest{
+    @Test
+    void foldsArithmetic(){
+        assertEquals(7.0, printed("print 1 + 2 * 3;"));
+    }
+
+    @Test
+    void foldsConcatenationToAPlainString(){
+        assertEquals("ab", printed("print \"a\" + \"b\";"));
+    }
+
+    @Test
+    void foldsDivisionByZero(){
+        assertEquals(Double.POSITIVE_INFINITY, printed("print 1 / 0;"));
+    }
+
+    @Test
+    void keepsStringPlusNumber(){
+        assertTrue(printedExpression("print \"a\" + 1;") instanceof Expr.Binary);
+    }
+
+    @Test
+    void keepsSubtractionFromString(){
+        assertTrue(printedExpression("print \"a\" - 1;") instanceof Expr.Binary);
+    }
+
+    @Test
+    void keepsNegatedString(){
+        assertTrue(printedExpression("print -\"a\";") instanceof Expr.Unary);
+    }
+
+    @Test
+    void keepsOperationsOnVariables(){
+        assertTrue(printedExpression("var x = 1; print x + 2;") instanceof Expr.Binary);
+    }
+
+    @Test
+    void dropsIfWithFalseConditionAndNoElse(){
+        assertEquals(0, optimize("if (nil) print \"dead\";").size());
+    }
+
+    @Test
+    void replacesIfWithTheBranchThatRuns(){
+        List<Stmt> statements = optimize("if (1 > 2) print \"then\"; else print \"else\";");
+        assertEquals(1, statements.size());
+        assertEquals("else", ((Expr.Literal)((Stmt.Print)statements.get(0)).expression).value);
+    }
+
+    @Test
+    void keepsEmptyBodyOfLoop(){
+        List<Stmt> statements = optimize("var i = 0; while (i < 1) if (nil) print i;");
+        Stmt.While loop = (Stmt.While)statements.get(1);
+        assertTrue(loop.body instanceof Stmt.Block);
+    }
+
+    //the value of the last print, which must have been folded to a literal
+    private static Object printed(String source){
+        Expr expression = printedExpression(source);
+        assertTrue(expression instanceof Expr.Literal, "folded to a literal");
+        return ((Expr.Literal)expression).value;
+    }
+
+    private static Expr printedExpression(String source){
+        List<Stmt> statements = optimize(source);
+        return ((Stmt.Print)statements.get(statements.size() - 1)).expression;
+    }
+
+    private static List<Stmt> optimize(String source){
+        List<Stmt> statements = new Parser(new Scanner(source)).parse();
+        new Resolver(new Interpreter()).resolve(statements);
+        return new Optimizer().optimize(statements);
+    }
+}
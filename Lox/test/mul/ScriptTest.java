@@ -0,0 +1,147 @@
+package mul;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.TestFactory;
+
+//runs every script in test/scripts in each configuration below and checks its
+//output, errors and exit code against the expectations written in its comments:
+//
+//  // expect: <line>                   a line the script prints
+//  // expect runtime error: <message>  the script stops with this error on the comment's line
+//  // expect error: <message>          the script doesn't compile, reported on the comment's line
+//
+//the engines, the JIT and the optimizer must not change what a script does, so
+//every configuration is held to the same expectations
+class ScriptTest{
+    private static final Path SCRIPTS = Paths.get("test", "scripts");
+
+    private static final String EXPECT = "// expect: ";
+    private static final String EXPECT_RUNTIME_ERROR = "// expect runtime error: ";
+    private static final String EXPECT_ERROR = "// expect error: ";
+
+    //arguments starting with -D go to the JVM, the rest to Mul
+    private enum Configuration{
+        TREE(),
+        TREE_WITHOUT_JIT("-Dmul.jit=false"),
+        //every function is compiled on its first call
+        TREE_EAGER_JIT("-Dmul.jit.threshold=1"),
+        TREE_WITHOUT_OPTIMIZER("-Dmul.optimize=false"),
+        VM("--engine=vm"),
+        VM_WITHOUT_OPTIMIZER("-Dmul.optimize=false", "--engine=vm");
+
+        final List<String> arguments;
+
+        Configuration(String... arguments){
+            this.arguments = Arrays.asList(arguments);
+        }
+    }
+
+    //what a run of a script printed and how it ended
+    private static class Result{
+        final List<String> output = new ArrayList<>();
+        final List<String> errors = new ArrayList<>();
+        int exitCode = 0;
+    }
+
+    @TestFactory
+    Stream<DynamicTest> scripts() throws IOException{
+        List<Path> scripts;
+        try(Stream<Path> files = Files.list(SCRIPTS)){
+            scripts = files.filter(file -> file.toString().endsWith(".mul")).sorted().collect(Collectors.toList());
+        }
+
+        List<DynamicTest> tests = new ArrayList<>();
+        for(Path script: scripts){
+            Result expected = expectations(script);
+            for(Configuration configuration: Configuration.values()){
+                String name = script.getFileName() + " " + configuration.name().toLowerCase();
+                tests.add(dynamicTest(name, () -> {
+                    Result actual = run(script, configuration);
+                    assertEquals(expected.output, actual.output, "output");
+                    assertEquals(expected.errors, actual.errors, "errors");
+                    assertEquals(expected.exitCode, actual.exitCode, "exit code");
+                }));
+            }
+        }
+        return tests.stream();
+    }
+
+    private static Result expectations(Path script) throws IOException{
+        Result expected = new Result();
+        List<String> lines = Files.readAllLines(script, StandardCharsets.UTF_8);
+        for(int i = 0; i < lines.size(); ++i){
+            String line = lines.get(i);
+            int lineNumber = i + 1;
+
+            int at = line.indexOf(EXPECT);
+            if(at >= 0){
+                expected.output.add(line.substring(at + EXPECT.length()));
+                continue;
+            }
+
+            at = line.indexOf(EXPECT_RUNTIME_ERROR);
+            if(at >= 0){
+                expected.errors.add(line.substring(at + EXPECT_RUNTIME_ERROR.length()));
+                expected.errors.add("[line " + lineNumber + "]");
+                expected.exitCode = 70;
+                continue;
+            }
+
+            at = line.indexOf(EXPECT_ERROR);
+            if(at >= 0){
+                expected.errors.add("[line " + lineNumber + "] Error: " + line.substring(at + EXPECT_ERROR.length()));
+                expected.exitCode = 65;
+            }
+        }
+        return expected;
+    }
+
+    //runs the script in a JVM of its own, Mul keeps its state in statics and exits when it's done
+    private static Result run(Path script, Configuration configuration) throws IOException, InterruptedException, URISyntaxException{
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-cp");
+        command.add(Paths.get(Mul.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString());
+        command.add("-Dmul.cache=false");
+        for(String argument: configuration.arguments){
+            if(argument.startsWith("-D"))
+                command.add(argument);
+        }
+        command.add("mul.Mul");
+        for(String argument: configuration.arguments){
+            if(!argument.startsWith("-D"))
+                command.add(argument);
+        }
+        command.add(script.toString());
+
+        File output = File.createTempFile("mul", ".out");
+        File errors = File.createTempFile("mul", ".err");
+        try{
+            Process process = new ProcessBuilder(command).redirectOutput(output).redirectError(errors).start();
+            Result result = new Result();
+            result.exitCode = process.waitFor();
+            result.output.addAll(Files.readAllLines(output.toPath()));
+            result.errors.addAll(Files.readAllLines(errors.toPath()));
+            return result;
+        }finally{
+            output.delete();
+            errors.delete();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package mul;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+//measures each phase of running a program on its own, every phase
+//gets the output of the previous ones prepared once during setup
+//
+//  java -jar benchmarks/target/benchmarks.jar -prof gc
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark {
+    //programs under src/main/resources/corpus
+    @Param({"fib", "loop", "strings", "oop", "closures"})
+    String program;
+
+    private String source;
+    private List<Token> tokens;
+    private List<Stmt> statements;
+    //the resolver only holds on to it, made here so resolve() doesn't
+    //pay for registering the natives of a new one on every call
+    private Interpreter interpreter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        try (InputStream in = PipelineBenchmark.class.getResourceAsStream("/corpus/" + program + ".mul")) {
+            if (in == null)
+                throw new IOException("No program named " + program + " in the corpus.");
+            source = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+
+        tokens = new Scanner(source).scanTokens();
+        statements = new Parser(tokens).parse();
+        interpreter = new Interpreter();
+        new Resolver(interpreter).resolve(statements);
+        if (Mul.hadError)
+            throw new IllegalStateException(program + ".mul doesn't compile.");
+
+        //the programs print their results, keep that out of the report
+        Output.to(OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public List<Token> scan() {
+        return new Scanner(source).scanTokens();
+    }
+
+    @Benchmark
+    public List<Stmt> parse() {
+        return new Parser(tokens).parse();
+    }
+
+    //resolving the same tree again stores the same depths and slots on it
+    @Benchmark
+    public List<Stmt> resolve() {
+        new Resolver(interpreter).resolve(statements);
+        return statements;
+    }
+
+    //a tree that has been run keeps its property caches and compiled functions,
+    //and the caches fill up with the shapes of classes from earlier runs. every
+    //run gets a freshly parsed and resolved tree, the way a script starts
+    @State(Scope.Thread)
+    public static class Run {
+        List<Stmt> statements;
+        Interpreter interpreter;
+
+        @Setup(Level.Invocation)
+        public void setUp(PipelineBenchmark benchmark) {
+            statements = new Parser(benchmark.tokens).parse();
+            interpreter = new Interpreter();
+            new Resolver(interpreter).resolve(statements);
+        }
+    }
+
+    @Benchmark
+    public Interpreter interpret(Run run) {
+        run.interpreter.interpret(run.statements);
+        return run.interpreter;
+    }
+}